@@ -0,0 +1,200 @@
+package threeChess.bench;
+
+import threeChess.*;
+import threeChess.agents.MonteCarloAgent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the core engine operations.
+ * Positions are midgames reached by seeded random play, so results are comparable across changes.
+ * Each result is the throughput of one call, apart from MonteCarloAgent.playMove,
+ * which is reported in search iterations per second.
+ * Build with "mvn -B package" in the bench directory,
+ * and run with "java -jar target/benchmarks.jar [regex]", where the optional regex selects benchmarks by name.
+ * **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+public class EngineBenchmark{
+
+  /** The seed for the random play that produces the benchmark positions. **/
+  static final long SEED = 3001L;
+  /** The number of moves played to reach the midgame position. **/
+  static final int MIDGAME = 60;
+  /** The number of Monte Carlo iterations searched per move. **/
+  static final int ITERATIONS = 2000;
+
+  /**
+   * Plays seeded random moves from the initial position.
+   * Captures are avoided where possible so that long games can be reached before a King is taken.
+   * @param seed the seed for the choice of moves.
+   * @param length the number of moves to play.
+   * @return the board after the moves, or at the first position without a quiet move.
+   * **/
+  public static Board position(long seed, int length) throws ImpossiblePositionException{
+    Random random = new Random(seed);
+    Board board = new Board(0);
+    int[] moves = new int[Board.MAX_MOVES];
+    int[] quiet = new int[Board.MAX_MOVES];
+    while(board.getMoveCount()<length && !board.gameOver()){
+      int count = board.generateMoves(moves);
+      int quietCount = 0;
+      for(int i = 0; i<count; i++)
+        if(board.getPiece(Move.end(moves[i]))==null) quiet[quietCount++] = moves[i];
+      if(quietCount==0) break;
+      int move = quiet[random.nextInt(quietCount)];
+      board.move(Move.start(move), Move.end(move));
+    }
+    return board;
+  }
+
+  /** The midgame position, with its legal moves, cycled through by the benchmarks that take a move. **/
+  @State(Scope.Thread)
+  public static class Midgame{
+    Board board;
+    int[] moves = new int[Board.MAX_MOVES];
+    int moveCount;
+    int next;
+    Position[] positions = Position.values();
+    int nextPosition;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ImpossiblePositionException{
+      board = position(SEED, MIDGAME);
+      moveCount = board.generateMoves(moves);
+    }
+
+    /** @return the next legal move, packed, cycling through them all. **/
+    int nextMove(){
+      int move = moves[next];
+      next = (next+1)%moveCount;
+      return move;
+    }
+
+    /** @return the next position, cycling through every square. **/
+    Position nextPosition(){
+      Position position = positions[nextPosition];
+      nextPosition = (nextPosition+1)%positions.length;
+      return position;
+    }
+  }
+
+  /** Every start and end pair from a square holding a piece of one type belonging to the player to move. **/
+  @State(Scope.Thread)
+  public static class Candidates{
+    @Param({"PAWN", "KNIGHT", "BISHOP", "ROOK", "QUEEN", "KING"})
+    public PieceType type;
+    Board board;
+    int[] pairs;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ImpossiblePositionException{
+      board = position(SEED, MIDGAME);
+      pairs = new int[Position.values().length*Position.values().length];
+      int count = 0;
+      for(Position start: board.getPositions(board.getTurn()))
+        if(board.getPiece(start).getType()==type)
+          for(Position end: Position.values()) pairs[count++] = Move.pack(start, end);
+      if(count==0) throw new IllegalStateException("No "+type+" to move in the benchmark position");
+      pairs = Arrays.copyOf(pairs, count);
+    }
+  }
+
+  /** A position after a given number of moves, for the operations whose cost grows with the history. **/
+  @State(Scope.Thread)
+  public static class Game{
+    @Param({"10", "100", "400"})
+    public int length;
+    Board board;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ImpossiblePositionException{
+      board = position(SEED, length);
+    }
+  }
+
+  /**
+   * An independent copy of the midgame position and the move to make on it, prepared before each call,
+   * so that the benchmark of {@link Board#move(Position,Position)} does not include copying the board.
+   * **/
+  @State(Scope.Thread)
+  public static class Fresh{
+    Board board;
+    int move;
+
+    @Setup(Level.Invocation)
+    public void setUp(Midgame midgame) throws CloneNotSupportedException{
+      board = (Board) midgame.board.clone();
+      move = midgame.nextMove();
+    }
+  }
+
+  @Benchmark
+  public boolean isLegalMove(Candidates candidates){
+    int pair = candidates.pairs[candidates.next];
+    candidates.next = (candidates.next+1)%candidates.pairs.length;
+    return candidates.board.isLegalMove(Move.start(pair), Move.end(pair));
+  }
+
+  @Benchmark
+  public int generateMoves(Midgame midgame){
+    return midgame.board.generateMoves(midgame.moves);
+  }
+
+  @Benchmark
+  public Board move(Fresh fresh) throws ImpossiblePositionException{
+    fresh.board.move(Move.start(fresh.move), Move.end(fresh.move));
+    return fresh.board;
+  }
+
+  @Benchmark
+  public long makeMoveUnmakeMove(Midgame midgame) throws ImpossiblePositionException{
+    int move = midgame.nextMove();
+    midgame.board.makeMove(Move.start(move), Move.end(move));
+    long hash = midgame.board.hash();
+    midgame.board.unmakeMove();
+    return hash;
+  }
+
+  @Benchmark
+  public Object cloneBoard(Game game) throws CloneNotSupportedException{
+    return game.board.clone();
+  }
+
+  @Benchmark
+  public void getPositions(Midgame midgame, Blackhole blackhole){
+    for(Colour colour: Colour.values()) blackhole.consume(midgame.board.getPositions(colour));
+  }
+
+  @Benchmark
+  public void score(Midgame midgame, Blackhole blackhole){
+    for(Colour colour: Colour.values()) blackhole.consume(midgame.board.score(colour));
+  }
+
+  @Benchmark
+  public Position positionGet(Midgame midgame) throws ImpossiblePositionException{
+    Position position = midgame.nextPosition();
+    return Position.get(position.getColour(), position.getRow(), position.getColumn());
+  }
+
+  @Benchmark
+  public Position positionNeighbour(Midgame midgame) throws ImpossiblePositionException{
+    Position position = midgame.nextPosition();
+    return position.neighbour(Direction.FORWARD);
+  }
+
+  /** A new agent searches each call, so every search starts without a tree. **/
+  @Benchmark
+  @OperationsPerInvocation(ITERATIONS)
+  public Position[] monteCarloPlayMove(Midgame midgame){
+    return new MonteCarloAgent(ITERATIONS, SEED).playMove(midgame.board);
+  }
+}
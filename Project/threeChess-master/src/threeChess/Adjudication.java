@@ -0,0 +1,50 @@
+package threeChess;
+
+/**
+ * The referee's rules for ending games that could otherwise go on indefinitely, 
+ * such as untimed games between agents that shuffle their pieces back and forth.
+ * A game can be drawn when a position is repeated, 
+ * and stopped at a maximum number of moves, either as a draw or decided on material.
+ * Positions are compared by {@link Board#hash()}, 
+ * so they are the same if the same pieces are on the same squares with the same player to move.
+ * **/
+public final class Adjudication{
+
+  /** No adjudication: a game only ends when a King is taken or a player runs out of time. **/
+  public static final Adjudication NONE = new Adjudication(0, 0, false);
+  /** The rules of the game: a position occurring for the third time is a draw, and there is no limit on the number of moves. **/
+  public static final Adjudication STANDARD = new Adjudication(3, 0, false);
+
+  private final int repetitions;
+  private final int maxMoves;
+  private final boolean byMaterial;
+
+  /**
+   * Creates a set of adjudication rules.
+   * @param repetitions the number of times a position may occur before the game is drawn, or 0 to allow any number.
+   * @param maxMoves the number of moves after which the game is stopped, or 0 for no limit.
+   * @param byMaterial true if a game stopped at the move limit is decided by {@link Board#adjudicate()}, 
+   * or false if it is a draw.
+   * @throws IllegalArgumentException if repetitions is 1, or either number is negative.
+   * **/
+  public Adjudication(int repetitions, int maxMoves, boolean byMaterial){
+    if(repetitions<0 || repetitions==1 || maxMoves<0) 
+      throw new IllegalArgumentException("Invalid adjudication: "+repetitions+" repetitions, "+maxMoves+" moves");
+    this.repetitions = repetitions;
+    this.maxMoves = maxMoves;
+    this.byMaterial = byMaterial;
+  }
+
+  /** @return the number of times a position may occur before the game is drawn, or 0 if there is no limit. **/
+  public int getRepetitions(){return repetitions;}
+
+  /** @return the number of moves after which the game is stopped, or 0 if there is no limit. **/
+  public int getMaxMoves(){return maxMoves;}
+
+  /** @return true if a game stopped at the move limit is decided on material rather than drawn. **/
+  public boolean isByMaterial(){return byMaterial;}
+
+  public String toString(){
+    return "repetitions:"+repetitions+", max moves:"+maxMoves+", by material:"+byMaterial;
+  }
+}
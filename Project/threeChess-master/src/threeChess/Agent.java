@@ -27,6 +27,41 @@ public abstract class Agent implements Runnable{
       return true;
   }
 
+  /**
+   * Can be overridden to let the agent think while other players are choosing their moves.
+   * The referee then calls {@link #onOpponentMove(Board)} and {@link #startPondering(Board)} on a separate thread
+   * whenever it is not the agent's turn, and {@link #stopPondering()} when another player moves.
+   * Only autonomous agents ponder, and pondering takes processor time from any other games played at the same time.
+   * **/
+  public boolean canPonder(){
+      return false;
+  }
+
+  /**
+   * Called on the pondering thread after another player moves, before pondering starts on the new position.
+   * The default implementation does nothing.
+   * @param board the position after the move, with its history.
+   * **/
+  public void onOpponentMove(Board board){}
+
+  /**
+   * Thinks about the position while other players move, until asked to stop.
+   * This is called on a separate thread after the agent moves, and again after each other player's move,
+   * so long as the agent is not the next to move.
+   * The default implementation returns immediately.
+   * @param board the position after the latest move, which the agent may modify.
+   * **/
+  public void startPondering(Board board){}
+
+  /**
+   * Asks the agent to return from {@link #startPondering(Board)} as soon as possible.
+   * This is called on the referee's thread after each move by another player, and when the game ends.
+   * The pondering thread is also interrupted, and as this may be called just as pondering starts, 
+   * a pondering agent should stop when its thread is interrupted, as well as when this is called.
+   * The time the referee waits for pondering to stop is charged to the agent if it is the next to move.
+   * **/
+  public void stopPondering(){}
+
   /**
    * Play a move in the game. 
    * The agent is given a Board Object representing the position of all pieces, 
@@ -40,6 +75,18 @@ public abstract class Agent implements Runnable{
    * **/
   public abstract Position[] playMove(Board board);
 
+  /**
+   * Starts choosing a move, returning without waiting for it to be chosen.
+   * The default implementation calls {@link #playMove(Board)} on a new daemon thread,
+   * which is interrupted if the future is cancelled, so the thread ends when the agent next checks for interruption.
+   * It can be overridden by agents that choose their moves some other way, such as waiting for the user.
+   * @param board The representation of the game state.
+   * @return a future completed with the move, in the form returned by playMove.
+   * **/
+  public MoveFuture playMoveAsync(Board board){
+    return MoveFuture.supply(() -> playMove(board), this+" move");
+  }
+
   /**
    * @return the Agent's name, for annotating game description.
    * **/ 
@@ -0,0 +1,78 @@
+package threeChess;
+
+import java.util.concurrent.*;
+
+/**
+ * Passes games to another recorder on a background thread, 
+ * so the threads playing games never wait for the recorder's output to be written.
+ * The calls for each game are made in the order they were received.
+ * The recorder must be closed to make sure every game is written, 
+ * as the background thread does not keep the program running.
+ * **/
+public class AsyncGameRecorder implements GameRecorder{
+
+  private final GameRecorder recorder;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "game-recorder");
+    thread.setDaemon(true);
+    return thread;
+  });
+  /** The first error thrown by the recorder, after which no more games are passed to it **/
+  private volatile RuntimeException error;
+
+  /**
+   * Creates a recorder that writes games with another recorder in the background.
+   * @param recorder the recorder to pass games to, which is closed when this recorder is closed.
+   * **/
+  public AsyncGameRecorder(GameRecorder recorder){
+    this.recorder = recorder;
+  }
+
+  public Recording startGame(String blue, String green, String red, int timeLimit, Clock clock){
+    Recording[] recording = new Recording[1];//only used on the writer thread
+    submit(() -> recording[0] = recorder.startGame(blue, green, red, timeLimit, clock));
+    return new Recording(){
+      public void move(Colour colour, Position start, Position end, int time, int cpuTime){
+        submit(() -> recording[0].move(colour, start, end, time, cpuTime));
+      }
+
+      public void pass(Colour colour, int time, int cpuTime){
+        submit(() -> recording[0].pass(colour, time, cpuTime));
+      }
+
+      public void end(Board board, int[] scores){
+        Board last = board.snapshot();//the caller's board may change after the game has been recorded
+        int[] result = scores.clone();
+        submit(() -> recording[0].end(last, result));
+      }
+    };
+  }
+
+  /** Queues a call to the recorder, unless it has already failed. **/
+  private void submit(Runnable call){
+    if(error!=null) throw error;
+    writer.execute(() -> {
+      if(error!=null) return;
+      try{
+        call.run();
+      }catch(RuntimeException e){
+        error = e;
+      }
+    });
+  }
+
+  /**
+   * Waits for the queued games to be recorded, and closes the recorder.
+   * @throws RuntimeException the first error thrown by the recorder, if any.
+   * **/
+  public void close(){
+    writer.shutdown();
+    try{
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    recorder.close();
+    if(error!=null) throw error;
+  }
+}
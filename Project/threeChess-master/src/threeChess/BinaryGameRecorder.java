@@ -0,0 +1,119 @@
+package threeChess;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records games in the compact binary format described in {@link GameRecord}:
+ * a fixed size header with the result, the agent names, and ten bytes for each move.
+ * Each game is held in memory until it ends and then written as one record through a buffer,
+ * so records of games played at the same time are never interleaved.
+ * **/
+public class BinaryGameRecorder implements GameRecorder{
+
+  private final OutputStream out;
+
+  /**
+   * Creates a recorder writing to a stream through a buffer.
+   * @param out the stream to write to, which is closed when the recorder is closed.
+   * **/
+  public BinaryGameRecorder(OutputStream out){
+    this.out = new BufferedOutputStream(out, 1<<16);
+  }
+
+  /**
+   * Creates a recorder appending to a file.
+   * @param file the file to write to, which is created if it does not exist.
+   * @throws IOException if the file cannot be opened for writing.
+   * **/
+  public BinaryGameRecorder(File file) throws IOException{
+    this(new FileOutputStream(file, true));
+  }
+
+  public Recording startGame(String blue, String green, String red, int timeLimit, Clock clock){
+    long startTime = System.currentTimeMillis();
+    byte[][] names = {name(blue), name(green), name(red)};
+    return new Recording(){
+      private ByteBuffer moves = ByteBuffer.allocate(128*GameRecord.MOVE_SIZE);
+      private int count;
+
+      public void move(Colour colour, Position start, Position end, int time, int cpuTime){
+        add(Move.pack(start, end), time, cpuTime);
+      }
+
+      public void pass(Colour colour, int time, int cpuTime){
+        add(Move.PASS, time, cpuTime);
+      }
+
+      /** Adds a packed move and its times, growing the buffer if it is full. **/
+      private void add(int move, int time, int cpuTime){
+        if(moves.remaining()<GameRecord.MOVE_SIZE){
+          ByteBuffer larger = ByteBuffer.allocate(2*moves.capacity());
+          moves.flip();
+          moves = larger.put(moves);
+        }
+        moves.putShort((short) move).putInt(time).putInt(cpuTime);
+        count++;
+      }
+
+      public void end(Board board, int[] scores){
+        ByteBuffer record = ByteBuffer.allocate(GameRecord.NAMES+6+names[0].length+names[1].length+names[2].length+moves.position());
+        record.putInt(record.capacity()-4).put(GameRecord.VERSION).putLong(startTime).putInt(timeLimit);
+        for(Colour c: Colour.values()) record.put((byte) scores[c.ordinal()]);
+        record.put((byte) ordinal(board.getWinner())).put((byte) ordinal(board.getLoser())).put((byte) clock.ordinal());
+        EndReason reason = board.getEndReason();
+        record.put((byte)(reason==null?-1:reason.ordinal()));
+        for(Colour c: Colour.values()) record.putInt(board.getTimeLeft(c));
+        record.putInt(count);
+        for(byte[] name: names) record.putShort((short) name.length).put(name);
+        record.put(moves.array(), 0, moves.position());
+        write(record.array());
+      }
+    };
+  }
+
+  /** @return the UTF-8 bytes of an agent name. **/
+  private static byte[] name(String name){
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    if(bytes.length>0xFFFF) throw new IllegalArgumentException("Agent name too long: "+name.substring(0, 40)+"...");
+    return bytes;
+  }
+
+  /** @return the ordinal of a colour, or -1 for null. **/
+  private static int ordinal(Colour colour){
+    return colour==null?-1:colour.ordinal();
+  }
+
+  /** Writes a complete record to the stream, which may be overridden to also note where it was written. **/
+  protected void write(byte[] record){
+    synchronized(out){
+      try{
+        out.write(record);
+      }catch(IOException e){
+        throw new UncheckedIOException("Error writing game record", e);
+      }
+    }
+  }
+
+  /** Writes the buffered records to the underlying stream, so they are in the file before anything that refers to them. **/
+  protected void flush(){
+    synchronized(out){
+      try{
+        out.flush();
+      }catch(IOException e){
+        throw new UncheckedIOException("Error writing game records", e);
+      }
+    }
+  }
+
+  public void close(){
+    synchronized(out){
+      try{
+        out.close();
+      }catch(IOException e){
+        throw new UncheckedIOException("Error closing game records", e);
+      }
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package threeChess;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,23 +10,98 @@ import java.util.*;
  * or null is free. It also records previous moves, 
  * as well as whose move it is, and which pieces have been 
  * captured by which player.
+ * Internally the pieces are stored as bitboards over the 96 positions 
+ * (two longs for each colour and piece type, indexed by Position ordinal), 
+ * together with an array of piece codes so a single square can be read directly.
  * **/
 public class Board implements Cloneable, Serializable {
   
   /** Serial version UID for Board serialization and storage**/
   private static final long serialVersionUID = -8547775276050612530L;
-  /** A map from board positions to the pieces at that position **/
-  private HashMap<Position,Piece> board;
+  /** An upper bound on the number of moves available to a player in any position, for sizing move buffers **/
+  public static final int MAX_MOVES = 512;//sixteen pieces with at most 31 targets each, plus castling
+  /**
+   * The number of bytes {@link #encode(ByteBuffer)} writes for a position without its history:
+   * a type nibble per square, the squares of the first two colours, the turn and flags, 
+   * the time left for each player, and a nibble per player per kind of piece they have taken.
+   * **/
+  public static final int ENCODED_SIZE = 48+2*12+1+3*4+3*6;
+  /** Flags in the encoded flags byte, after the turn in bits 0-1, and before the declared ending in bits 4-6 **/
+  private static final int ENCODED_GAME_OVER = 4, ENCODED_HISTORY = 8, ENCODED_ENDING_SHIFT = 4;
+  /** The number of piece types, used to compute piece codes **/
+  private static final int TYPES = PieceType.values().length;
+  /** One immutable piece for each colour and type, indexed by piece code - 1 **/
+  private static final Piece[] PIECES = new Piece[3*TYPES];
+  static{
+    for(Colour c: Colour.values())
+      for(PieceType t: PieceType.values())
+        PIECES[c.ordinal()*TYPES+t.ordinal()] = new Piece(t,c);
+  }
+  /**
+   * Zobrist keys for each piece code (less one) on each position, at index 96*(code-1)+ordinal, 
+   * followed by a key for each player to move. 
+   * Castling in this variant only depends on the King and Rook standing on their initial positions, 
+   * so the piece keys already distinguish positions with different castling options.
+   * The keys come from a fixed seed, so hashes are the same in every run of the program.
+   * **/
+  private static final long[] ZOBRIST = new long[96*PIECES.length+3];
+  static{
+    Random random = new Random(0x3C4E55L);
+    for(int i = 0; i<ZOBRIST.length; i++) ZOBRIST[i] = random.nextLong();
+  }
+  /** Bitboards of each piece type and colour: squares 0-63 in word 2*(code-1), and 64-95 in word 2*(code-1)+1 **/
+  private long[] bitboards;
+  /** Bitboard of all occupied squares, in the same two word layout **/
+  private long[] occupied;
+  /** Bitboards of the squares occupied by each colour, in words 2*colour and 2*colour+1 **/
+  private long[] colourOccupied;
+  /** The code of the piece at each position (1 + 6*colour + type), or 0 if the position is vacant **/
+  private byte[] squares;
+  /** The Zobrist hash of the pieces on the board, updated whenever a square changes **/
+  private long pieceHash;
+  /**Bit offsets of the fields of an undo record, after the packed move in bits 0-13**/
+  private static final int UNDO_MOVER = 14, UNDO_TAKEN = 19, UNDO_ROOK_TO = 24, UNDO_CASTLE = 29, 
+    UNDO_PROMOTED = 31, UNDO_TURN = 32, UNDO_GAME_OVER = 34, UNDO_TIMEOUT = 35;
+  /**The most pieces one player can take: every other piece on the board**/
+  private static final int CAPTURES = 47;
+  /**True if the fixed size arrays are shared with a snapshot, or with the board this snapshot was taken from**/
+  private boolean shared;
+  /**True if the history array is shared with a snapshot, or with the board this snapshot was taken from**/
+  private boolean historyShared;
+  /**True if this board is a snapshot that has not yet been modified**/
+  private boolean snapshot;
   /**A flag that is true if and only if a King has been captured**/
   private boolean gameOver = false;
+  /**How the referee ended the game, if it was not ended by a move**/
+  private EndReason declaredEnd;
   /**The player whose turn it is**/
   private Colour turn = Colour.BLUE;//Blue goes first
-  /**The moves taken so far, represented as an array of two positions, the start and end of the move**/
-  private ArrayList<Position[]> history;//can only be changed by taking moves
-  /**A map indicating which player has taken which piece, to support alternative scoring methods**/
-  private HashMap<Colour,ArrayList<Piece>> captured;
-  /**A Map representing the remaining time allowed for each player, in milliseconds**/
-  private HashMap<Colour,Integer> timeLeft;
+  /**The moves taken so far, each packed as described in {@link Move}, the start and end of the move**/
+  private short[] history;//can only be changed by taking moves, and is only appended to while shared
+  /**The number of moves in the history**/
+  private int moveCount;
+  /**The codes of the pieces taken by each player, in the order taken, with player c's captures starting at index CAPTURES*c**/
+  private byte[] captured;
+  /**The number of pieces taken by each player**/
+  private int[] capturedCount;
+  /**The squares attacked by each colour, in words 2*colour and 2*colour+1, computed when first needed for a position**/
+  private long[] attacks;
+  /**Bit c is set if the attacks of colour c are up to date, and cleared whenever a square changes**/
+  private int attacksValid;
+  /**The combined value of each player's pieces on the board**/
+  private int[] material;
+  /**The combined value of the pieces taken by each player**/
+  private int[] capturedValue;
+  /**The remaining time allowed for each player, in milliseconds, indexed by colour ordinal**/
+  private int[] timeLeft;
+  /**The wall clock and processor time used by each player, in milliseconds, at indexes 2*colour and 2*colour+1**/
+  private int[] timeUsed;
+  /**Undo records for the moves made with makeMove, packing the move, the moving, captured and castling pieces, and flags**/
+  private long[] undoRecords = new long[16];
+  /**The time charged for each move on the undo stack**/
+  private int[] undoTimes = new int[16];
+  /**The number of moves on the undo stack**/
+  private int undoCount;
 
   /**
    * Initialises the board, placing all pieces at their initial position.
@@ -33,25 +109,93 @@ public class Board implements Cloneable, Serializable {
    * @param time the number of milliseconds each player has in total for the entire game.
    * **/
   public Board(int time){
-    board = new HashMap<Position,Piece>();
+    this();
     try{
       for(Colour c: Colour.values()){
-        board.put(Position.get(c,0,0),new Piece(PieceType.ROOK,c)); board.put(Position.get(c,0,7), new Piece(PieceType.ROOK,c));
-        board.put(Position.get(c,0,1),new Piece(PieceType.KNIGHT,c)); board.put(Position.get(c,0,6), new Piece(PieceType.KNIGHT,c));
-        board.put(Position.get(c,0,2),new Piece(PieceType.BISHOP,c)); board.put(Position.get(c,0,5), new Piece(PieceType.BISHOP,c));
-        board.put(Position.get(c,0,3),new Piece(PieceType.QUEEN,c)); board.put(Position.get(c,0,4), new Piece(PieceType.KING,c));
+        put(Position.get(c,0,0),PieceType.ROOK,c); put(Position.get(c,0,7),PieceType.ROOK,c);
+        put(Position.get(c,0,1),PieceType.KNIGHT,c); put(Position.get(c,0,6),PieceType.KNIGHT,c);
+        put(Position.get(c,0,2),PieceType.BISHOP,c); put(Position.get(c,0,5),PieceType.BISHOP,c);
+        put(Position.get(c,0,3),PieceType.QUEEN,c); put(Position.get(c,0,4),PieceType.KING,c);
         for(int i = 0; i<8; i++){
-          board.put(Position.get(c,1,i), new Piece(PieceType.PAWN,c));
+          put(Position.get(c,1,i),PieceType.PAWN,c);
         }
       }
     }catch(ImpossiblePositionException e){}//no impossible positions in this code
-    history = new ArrayList<Position[]>();
-    captured = new HashMap<Colour,ArrayList<Piece>>();
-    timeLeft = new HashMap<Colour,Integer>();
     for(Colour c: Colour.values()){
-      captured.put(c,new ArrayList<>());
-      timeLeft.put(c,time);
+      timeLeft[c.ordinal()] = time;
+    }
+  }
+
+  /** Creates an empty board, with no pieces and no time. **/
+  private Board(){
+    bitboards = new long[2*PIECES.length];
+    occupied = new long[2];
+    colourOccupied = new long[6];
+    squares = new byte[96];
+    material = new int[3];
+    attacks = new long[6];
+    history = new short[16];
+    captured = new byte[3*CAPTURES];
+    capturedCount = new int[3];
+    capturedValue = new int[3];
+    timeLeft = new int[3];
+    timeUsed = new int[6];
+  }
+
+  /** @return the code used to store a piece of the given type and colour. **/
+  private static int code(PieceType type, Colour colour){
+    return 1+colour.ordinal()*TYPES+type.ordinal();
+  }
+
+  /** @return the piece for a code, or null for the vacant code 0. **/
+  private static Piece piece(int code){
+    return code==0?null:PIECES[code-1];
+  }
+
+  /** Places a piece of the given type and colour at a position during set up. **/
+  private void put(Position position, PieceType type, Colour colour){
+    set(position.ordinal(), code(type,colour));
+  }
+
+  /**
+   * Sets the square with the given ordinal to hold the piece with the given code,
+   * replacing any piece already there. A code of 0 empties the square.
+   * **/
+  private void set(int square, int code){
+    int word = square>>>6;
+    long bit = 1L<<square;//shifts use the low 6 bits, so this is the bit within the word
+    int old = squares[square];
+    attacksValid = 0;
+    if(old!=0){
+      bitboards[2*(old-1)+word] &= ~bit;
+      colourOccupied[2*((old-1)/TYPES)+word] &= ~bit;
+      material[(old-1)/TYPES] -= PIECES[old-1].getValue();
+      pieceHash ^= ZOBRIST[96*(old-1)+square];
+    }
+    if(code!=0){
+      bitboards[2*(code-1)+word] |= bit;
+      colourOccupied[2*((code-1)/TYPES)+word] |= bit;
+      material[(code-1)/TYPES] += PIECES[code-1].getValue();
+      pieceHash ^= ZOBRIST[96*(code-1)+square];
+      occupied[word] |= bit;
     }
+    else occupied[word] &= ~bit;
+    squares[square] = (byte) code;
+  }
+
+  /** @return the ordinal of a position, as given by {@link Position#get(Colour,int,int)} but without bounds checks. **/
+  private static int ordinal(Colour colour, int row, int column){
+    return 32*colour.ordinal()+row+4*column;
+  }
+
+  /** @return true if the square with the given ordinal holds a piece of the given colour. **/
+  private boolean isOwn(int square, Colour colour){
+    return (colourOccupied[2*colour.ordinal()+(square>>>6)] & (1L<<square))!=0;
+  }
+
+  /** @return true if the square with the given ordinal is occupied. **/
+  private boolean isOccupied(int square){
+    return (occupied[square>>>6] & (1L<<square))!=0;
   }
 
   /** @return whether in manual mode, the legal moves should be displayed on the board. **/
@@ -61,23 +205,59 @@ public class Board implements Cloneable, Serializable {
 
   /**
    * Return a set of all the positions of pieces belonging to a player.
-   * This is a method of convenience, but is not very fast. 
-   * Time concious players may prefer to maintain their own data structure that persists between moves.
+   * The board keeps track of the positions of each player's pieces as moves are made, 
+   * so this only needs to copy them into a new set. 
+   * To iterate over the positions without creating a set, use {@link #nextPosition(Colour,int)}.
    * @param player the Colour of the player owing the pieces
    * @return a Set of the positions that are occupied by a piece of the given colour.
    * **/
   public Set<Position> getPositions(Colour player){
-    HashSet<Position> positions = new HashSet<Position>();
-    for(Position p : Position.values()){
-      if(board.containsKey(p) && board.get(p).getColour()==player)
-        positions.add(p);
-    }
+    EnumSet<Position> positions = EnumSet.noneOf(Position.class);
+    for(int square = nextPosition(player,0); square>=0; square = nextPosition(player,square+1))
+      positions.add(Position.get(square));
     return positions;
   }
 
+  /**
+   * Finds the next position, in ordinal order, occupied by a piece belonging to a player.
+   * This iterates over a player's pieces without allocating any objects:
+   * <pre>
+   * for(int square = board.nextPosition(player,0); square&gt;=0; square = board.nextPosition(player,square+1))
+   *   Position position = Position.get(square);
+   * </pre>
+   * @param player the Colour of the player owing the pieces
+   * @param from the ordinal to start searching from (inclusive).
+   * @return the smallest ordinal at least {@code from} occupied by the player's piece, or -1 if there is none.
+   * **/
+  public int nextPosition(Colour player, int from){
+    for(int word = from>>>6; word<2 && from<96; word++, from = 64*word){
+      long bits = colourOccupied[2*player.ordinal()+word] & (-1L<<from);//shifts use the low 6 bits of from
+      if(bits!=0) return 64*word+Long.numberOfTrailingZeros(bits);
+    }
+    return -1;
+  }
+
+  /**
+   * @param player the Colour of the player owing the pieces
+   * @return the number of pieces the player has on the board.
+   * **/
+  public int pieceCount(Colour player){
+    return Long.bitCount(colourOccupied[2*player.ordinal()])+Long.bitCount(colourOccupied[2*player.ordinal()+1]);
+  }
+
   /** @return a set of all the pieces captured by {@param player}. **/
   public List<Piece> getCaptured(Colour player) {
-    return new ArrayList<>(captured.get(player));
+    ArrayList<Piece> pieces = new ArrayList<>();
+    for(int i = 0; i<capturedCount[player.ordinal()]; i++)
+      pieces.add(piece(captured[CAPTURES*player.ordinal()+i]));
+    return pieces;
+  }
+
+  /** @return true if {@param player} has taken a King. **/
+  private boolean tookKing(Colour player){
+    for(int i = 0; i<capturedCount[player.ordinal()]; i++)
+      if(piece(captured[CAPTURES*player.ordinal()+i]).getType()==PieceType.KING) return true;
+    return false;
   }
 
   /**
@@ -86,7 +266,7 @@ public class Board implements Cloneable, Serializable {
    * @return the piece at that position or null, if the position is vacant.
    * **/
   public Piece getPiece(Position position){
-    return board.get(position);
+    return piece(squares[position.ordinal()]);
   }
   
   /**
@@ -101,23 +281,7 @@ public class Board implements Cloneable, Serializable {
    * @throws ImpossiblePositionException if the step takes piece off the board.
    * **/
   public Position step(Piece piece, Direction[] step, Position current) throws ImpossiblePositionException{
-    boolean reverse = false;
-    for(Direction d: step){
-      if((piece.getColour()!=current.getColour() && piece.getType() == PieceType.PAWN) || reverse){//reverse directions for knights
-        switch(d){
-          case FORWARD: d = Direction.BACKWARD; break;
-          case BACKWARD: d = Direction.FORWARD; break;
-          case LEFT: d = Direction.RIGHT; break;
-          case RIGHT: d = Direction.LEFT; break;
-        }
-      }
-      Position next = current.neighbour(d);
-      if(next.getColour()!= current.getColour()){//need to reverse directions when switching between sections of the board
-        reverse=true;
-      }
-      current = next;
-    }
-    return current;
+    return walk(piece.getType(), piece.getColour(), step, current, false);
   }
 
   /**
@@ -134,8 +298,17 @@ public class Board implements Cloneable, Serializable {
    * @throws ImpossiblePositionException if the step takes piece off the board.
    * **/
   public Position step(Piece piece, Direction[] step, Position current, boolean reverse) throws ImpossiblePositionException{
+    return walk(piece.getType(), piece.getColour(), step, current, reverse);
+  }
+
+  /**
+   * Walks the directions of a step for a piece of the given type and colour.
+   * This is the geometry behind {@link #step} and the tables in {@link MoveTables}.
+   * @throws ImpossiblePositionException if the step takes piece off the board.
+   * **/
+  static Position walk(PieceType type, Colour colour, Direction[] step, Position current, boolean reverse) throws ImpossiblePositionException{
     for(Direction d: step){
-      if((piece.getColour()!=current.getColour() && piece.getType() == PieceType.PAWN) || reverse){//reverse directions for knights
+      if((colour!=current.getColour() && type == PieceType.PAWN) || reverse){//reverse directions for knights
         switch(d){
           case FORWARD: d = Direction.BACKWARD; break;
           case BACKWARD: d = Direction.FORWARD; break;
@@ -177,77 +350,240 @@ public class Board implements Cloneable, Serializable {
     Colour mCol =mover.getColour();
     if(mCol!=turn) return false;//it must be your turn
     if(target!= null && mCol==target.getColour())return false; //you can't take your own piece
-    Direction[][] steps = mover.getType().getSteps();
+    int to = end.ordinal();
     switch(mover.getType()){
       case PAWN://note, there is no two step first move
-        for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover,steps[i],start) && 
-                ((target==null && i==0) // 1 step forward, not taking
-                 || (target==null && i==1 // 2 steps forward, 
-                   && start.getColour()==mCol && start.getRow()==1 //must be in initial position
-                   && board.get(Position.get(mCol,2,start.getColumn()))==null)//and can't jump a piece 
-                 || (target!=null && i>1)//or taking diagonally
-                )
-              )
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+        int[][] steps = MoveTables.steps(PieceType.PAWN, mCol, start);
+        if(target==null){
+          if(steps[0].length>0 && steps[0][0]==to) return true;// 1 step forward, not taking
+          if(steps[1].length>0 && steps[1][0]==to // 2 steps forward,
+              && start.getColour()==mCol && start.getRow()==1) //must be in initial position
+            try{
+              if(!isOccupied(Position.get(mCol,2,start.getColumn()).ordinal())) return true;//and can't jump a piece
+            }catch(ImpossiblePositionException e){}//do nothing, all positions possible here.
+        }
+        else{
+          for(int i = 2; i<steps.length; i++)//or taking diagonally
+            if(steps[i].length>0 && steps[i][0]==to) return true;
         }
         break;
       case KNIGHT:
-        for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover, steps[i],start))
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
-        }
+        for(int square: MoveTables.targets(PieceType.KNIGHT, mCol, start))
+          if(square==to) return true;
         break;
       case KING://note, you can move into check or remain in check. You may also castle across check
-        for(int i = 0; i<steps.length; i++){
-          try{
-            if(end == step(mover, steps[i],start))
-              return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
-        }
+        for(int square: MoveTables.targets(PieceType.KING, mCol, start))
+          if(square==to) return true;
         //castling: Must have king and rook in their original positions, although they may have moved
         try{
           if(start==Position.get(mCol,0,4)){
             if(end==Position.get(mCol,0,6)){
-              Piece castle = board.get(Position.get(mCol,0,7));
-              Piece empty1 = board.get(Position.get(mCol,0,5));
-              Piece empty2 = board.get(Position.get(mCol,0,6));
-              if(castle!=null && castle.getType()==PieceType.ROOK && castle.getColour()==mover.getColour()
-                  && empty1==null && empty2==null)
+              if(squares[Position.get(mCol,0,7).ordinal()]==code(PieceType.ROOK,mCol)
+                  && !isOccupied(Position.get(mCol,0,5).ordinal()) && !isOccupied(Position.get(mCol,0,6).ordinal()))
                 return true;
             }
             if(end==Position.get(mCol,0,2)){
-              Piece castle = board.get(Position.get(mCol,0,0));
-              Piece empty1 = board.get(Position.get(mCol,0,1));
-              Piece empty2 = board.get(Position.get(mCol,0,2));
-              Piece empty3 = board.get(Position.get(mCol,0,3));
-              if(castle!=null && castle.getType()==PieceType.ROOK && castle.getColour()==mover.getColour()
-                  && empty1==null && empty2==null && empty3==null)
+              if(squares[Position.get(mCol,0,0).ordinal()]==code(PieceType.ROOK,mCol)
+                  && !isOccupied(Position.get(mCol,0,1).ordinal()) && !isOccupied(Position.get(mCol,0,2).ordinal())
+                  && !isOccupied(Position.get(mCol,0,3).ordinal()))
                 return true;
             }
           }
         }catch(ImpossiblePositionException e){}//do nothing, all positions possible here.
         break;
       default://rook, bishop, queen, just need to check that one of their steps is iterated.
-        for(int i = 0; i<steps.length; i++){
-          Direction[] step = steps[i];
-          try{
-            Position tmp = step(mover,step,start);
-            while(end != tmp && board.get(tmp)==null){
-              tmp = step(mover, step, tmp, tmp.getColour()!=start.getColour());
-            }
-            if(end==tmp) return true;
-          }catch(ImpossiblePositionException e){}//do nothing, steps went off board.
+        for(int[] ray: MoveTables.steps(mover.getType(), mCol, start)){
+          for(int square: ray){
+            if(square==to) return true;
+            if(isOccupied(square)) break;//can't pass through another piece
+          }
         }
         break;
     }
     return false;//move did not match any legal option.
   }
 
+  /**
+   * Generates every legal move of the player whose turn it is.
+   * @param moves an array to write the moves to, packed as described in {@link Move}, 
+   * which should have at least {@link #MAX_MOVES} elements.
+   * @return the number of moves written to the array.
+   * **/
+  public int generateMoves(int[] moves){
+    return generateMoves(turn, moves);
+  }
+
+  /**
+   * Generates the moves of a player, following the same rules as {@link #isLegalMove}:
+   * single and initial two step pawn moves, diagonal pawn captures, 
+   * castling, and iterated steps that stop at the first occupied position.
+   * If the player is not the player whose turn it is, the moves are those 
+   * they could make if it were their turn.
+   * No objects are allocated, so the array can be reused between calls.
+   * @param player the colour of the player to generate moves for.
+   * @param moves an array to write the moves to, packed as described in {@link Move}, 
+   * which should have at least {@link #MAX_MOVES} elements.
+   * @return the number of moves written to the array.
+   * **/
+  public int generateMoves(Colour player, int[] moves){
+    int count = 0;
+    for(PieceType type: PieceType.values()){
+      int code = code(type,player);
+      for(int word = 0; word<2; word++){
+        for(long bits = bitboards[2*(code-1)+word]; bits!=0; bits &= bits-1){
+          int from = 64*word+Long.numberOfTrailingZeros(bits);
+          count = generateMoves(type, player, from, moves, count);
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Writes the moves of a single piece to the array, starting at index count, and returns the new count. **/
+  private int generateMoves(PieceType type, Colour player, int from, int[] moves, int count){
+    Position start = Position.get(from);
+    int[][] steps = MoveTables.steps(type, player, start);
+    long seen0 = 0, seen1 = 0;//targets already written, as different steps can reach the same position
+    switch(type){
+      case PAWN:
+        if(steps[0].length>0 && !isOccupied(steps[0][0])){
+          moves[count++] = Move.pack(from, steps[0][0]);
+          //the two step move passes through the one step target
+          if(steps[1].length>0 && start.getColour()==player && start.getRow()==1 && !isOccupied(steps[1][0]))
+            moves[count++] = Move.pack(from, steps[1][0]);
+        }
+        for(int i = 2; i<steps.length; i++){
+          if(steps[i].length==0) continue;
+          int to = steps[i][0];
+          long bit = 1L<<to;
+          if(isOccupied(to) && !isOwn(to,player) && ((to<64?seen0:seen1)&bit)==0){
+            if(to<64) seen0 |= bit; else seen1 |= bit;
+            moves[count++] = Move.pack(from, to);
+          }
+        }
+        break;
+      case KNIGHT:
+      case KING:
+        for(int to: MoveTables.targets(type, player, start))
+          if(!isOwn(to,player)) moves[count++] = Move.pack(from, to);
+        if(type==PieceType.KING && from==ordinal(player,0,4)){//castling
+          if(squares[ordinal(player,0,7)]==code(PieceType.ROOK,player)
+              && !isOccupied(ordinal(player,0,5)) && !isOccupied(ordinal(player,0,6)))
+            moves[count++] = Move.pack(from, ordinal(player,0,6));
+          if(squares[ordinal(player,0,0)]==code(PieceType.ROOK,player) && !isOccupied(ordinal(player,0,1))
+              && !isOccupied(ordinal(player,0,2)) && !isOccupied(ordinal(player,0,3)))
+            moves[count++] = Move.pack(from, ordinal(player,0,2));
+        }
+        break;
+      default:
+        for(int[] ray: steps){
+          for(int to: ray){
+            boolean occupied = isOccupied(to);
+            if(occupied && isOwn(to,player)) break;
+            long bit = 1L<<to;
+            if(((to<64?seen0:seen1)&bit)==0){
+              if(to<64) seen0 |= bit; else seen1 |= bit;
+              moves[count++] = Move.pack(from, to);
+            }
+            if(occupied) break;
+          }
+        }
+        break;
+    }
+    return count;
+  }
+
+  /**
+   * Checks whether a player attacks a position, 
+   * that is, whether one of their pieces could take a piece of another colour on that position,
+   * if it were their turn. Pawns only attack diagonally, and castling never attacks.
+   * Positions occupied by the attacker's own pieces count as attacked if they are defended.
+   * The attacked positions of each player are computed once per position, 
+   * so repeated queries before the next move take constant time.
+   * @param position the position that may be attacked
+   * @param attacker the colour of the attacking player
+   * @return true if and only if a piece of the attacking player attacks the position.
+   * **/
+  public boolean isAttacked(Position position, Colour attacker){
+    int square = position.ordinal();
+    return (attacks(attacker)[2*attacker.ordinal()+(square>>>6)] & (1L<<square))!=0;
+  }
+
+  /**
+   * Returns the set of positions a player attacks, as defined by {@link #isAttacked(Position,Colour)}.
+   * @param attacker the colour of the attacking player
+   * @return a Set of the positions attacked by the player's pieces.
+   * **/
+  public Set<Position> getAttacked(Colour attacker){
+    long[] attacks = attacks(attacker);
+    EnumSet<Position> positions = EnumSet.noneOf(Position.class);
+    for(int word = 0; word<2; word++)
+      for(long bits = attacks[2*attacker.ordinal()+word]; bits!=0; bits &= bits-1)
+        positions.add(Position.get(64*word+Long.numberOfTrailingZeros(bits)));
+    return positions;
+  }
+
+  /**
+   * Returns the positions of a player's pieces that attack a position, 
+   * as defined by {@link #isAttacked(Position,Colour)}.
+   * @param position the position that may be attacked
+   * @param attacker the colour of the attacking player
+   * @return a Set of the positions of the attacking pieces, which is empty if the position is not attacked.
+   * **/
+  public Set<Position> attackersOf(Position position, Colour attacker){
+    EnumSet<Position> attackers = EnumSet.noneOf(Position.class);
+    if(!isAttacked(position, attacker)) return attackers;
+    int target = position.ordinal();
+    long[] bits = new long[2];
+    for(int from = nextPosition(attacker,0); from>=0; from = nextPosition(attacker,from+1)){
+      bits[0] = bits[1] = 0;
+      addAttacks(PIECES[squares[from]-1].getType(), attacker, from, bits);
+      if((bits[target>>>6] & (1L<<target))!=0) attackers.add(Position.get(from));
+    }
+    return attackers;
+  }
+
+  /** @return the attacks array, after making sure the attacks of the given colour are up to date. **/
+  private long[] attacks(Colour attacker){
+    int c = attacker.ordinal();
+    if((attacksValid & 1<<c)==0){
+      attacks[2*c] = attacks[2*c+1] = 0;
+      for(int from = nextPosition(attacker,0); from>=0; from = nextPosition(attacker,from+1))
+        addAttacks(PIECES[squares[from]-1].getType(), attacker, from, attacks, 2*c);
+      attacksValid |= 1<<c;
+    }
+    return attacks;
+  }
+
+  /** Adds the squares attacked by a piece to the two words of a bitboard starting at index 0. **/
+  private void addAttacks(PieceType type, Colour colour, int from, long[] bits){
+    addAttacks(type, colour, from, bits, 0);
+  }
+
+  /** Adds the squares attacked by a piece to the two words of a bitboard starting at the given index. **/
+  private void addAttacks(PieceType type, Colour colour, int from, long[] bits, int index){
+    Position start = Position.get(from);
+    switch(type){
+      case PAWN:
+        int[][] steps = MoveTables.steps(type, colour, start);
+        for(int i = 2; i<steps.length; i++)//only the diagonal steps can take
+          for(int to: steps[i]) bits[index+(to>>>6)] |= 1L<<to;
+        break;
+      case KNIGHT:
+      case KING:
+        for(int to: MoveTables.targets(type, colour, start)) bits[index+(to>>>6)] |= 1L<<to;
+        break;
+      default:
+        for(int[] ray: MoveTables.steps(type, colour, start)){
+          for(int to: ray){
+            bits[index+(to>>>6)] |= 1L<<to;
+            if(isOccupied(to)) break;
+          }
+        }
+        break;
+    }
+  }
+
   /**
    * Executes a legal move. 
    * If a piece is taken it is replaced at that position by the taking piece.
@@ -259,36 +595,132 @@ public class Board implements Cloneable, Serializable {
    * @throws ImpossiblePositionException if the move is not legal
    * **/ 
   public void move(Position start, Position end, int time) throws ImpossiblePositionException{
-    if(isLegalMove(start,end)){
-      Piece mover = board.get(start);
-      Piece taken = board.get(end);
-      timeLeft.put(mover.getColour(),timeLeft.get(mover.getColour())-time);
-      if(timeLeft.get(mover.getColour())<0) gameOver=true;
-      else{
-        board.remove(start);//empty start square
-        if(mover.getType()==PieceType.PAWN && end.getRow()==0 && end.getColour()!=mover.getColour())
-          board.put(end, new Piece(PieceType.QUEEN, mover.getColour()));//promote pawn if back rank
-        else board.put(end,mover);//move piece
-        if(mover.getType()==PieceType.KING && start.getColumn()==4 && start.getRow()==0){
-          if(end.getColumn()==2){//castle left, update rook
-            Position rookPos = Position.get(mover.getColour(),0,0);
-            board.put(Position.get(mover.getColour(),0,3),board.get(rookPos));
-            board.remove(rookPos);
-          }else if(end.getColumn()==6){//castle right, update rook
-            Position rookPos = Position.get(mover.getColour(),0,7);
-            board.put(Position.get(mover.getColour(),0,5),board.get(rookPos));
-            board.remove(rookPos);
-         }
-        }
-        history.add(new Position[]{start,end});
-        if(taken !=null){
-          captured.get(mover.getColour()).add(taken);
-          if(taken.getType()==PieceType.KING) gameOver=true;
-        }
-        turn = Colour.values()[(turn.ordinal()+1)%3];
+    if(isLegalMove(start,end)) play(start,end,time);
+    else throw new ImpossiblePositionException("Illegal Move: "+start+"-"+end);
+  }
+
+  /**
+   * Executes a move without checking it is legal.
+   * @return an undo record describing the move, in the layout given by the UNDO constants.
+   * **/
+  private long play(Position start, Position end, int time){
+    own();
+    int from = start.ordinal(), to = end.ordinal();
+    int moverCode = squares[from];
+    int takenCode = squares[to];
+    Piece mover = piece(moverCode);
+    Colour mCol = mover.getColour();
+    long undo = Move.pack(from,to) | (long)moverCode<<UNDO_MOVER | (long)takenCode<<UNDO_TAKEN
+      | (long)turn.ordinal()<<UNDO_TURN | (gameOver?1L:0L)<<UNDO_GAME_OVER;
+    timeLeft[mCol.ordinal()] -= time;
+    if(timeLeft[mCol.ordinal()]<0){
+      gameOver=true;
+      return undo | 1L<<UNDO_TIMEOUT;
+    }
+    set(from,0);//empty start square
+    if(mover.getType()==PieceType.PAWN && end.getRow()==0 && end.getColour()!=mCol){
+      set(to,code(PieceType.QUEEN,mCol));//promote pawn if back rank
+      undo |= 1L<<UNDO_PROMOTED;
+    }
+    else set(to,moverCode);//move piece
+    if(mover.getType()==PieceType.KING && start.getColumn()==4 && start.getRow()==0){
+      if(end.getColumn()==2){//castle left, update rook
+        undo |= 1L<<UNDO_CASTLE | (long)squares[ordinal(mCol,0,3)]<<UNDO_ROOK_TO;
+        set(ordinal(mCol,0,3),squares[ordinal(mCol,0,0)]);
+        set(ordinal(mCol,0,0),0);
+      }else if(end.getColumn()==6){//castle right, update rook
+        undo |= 2L<<UNDO_CASTLE | (long)squares[ordinal(mCol,0,5)]<<UNDO_ROOK_TO;
+        set(ordinal(mCol,0,5),squares[ordinal(mCol,0,7)]);
+        set(ordinal(mCol,0,7),0);
       }
     }
-    else throw new ImpossiblePositionException("Illegal Move: "+start+"-"+end);
+    addToHistory(Move.pack(from,to));
+    if(takenCode!=0){
+      captured[CAPTURES*mCol.ordinal()+capturedCount[mCol.ordinal()]++] = (byte)takenCode;
+      capturedValue[mCol.ordinal()] += piece(takenCode).getValue();
+      if(piece(takenCode).getType()==PieceType.KING) gameOver=true;
+    }
+    turn = Colour.values()[(turn.ordinal()+1)%3];
+    return undo;
+  }
+
+  /** Appends a packed move to the history, growing it if it is full. **/
+  private void addToHistory(int move){
+    if(moveCount==history.length){
+      history = Arrays.copyOf(history, 2*moveCount);
+      historyShared = false;
+    }
+    history[moveCount++] = (short) move;
+  }
+
+  /**
+   * Executes a legal move so that it can later be reversed with {@link #unmakeMove()}.
+   * This is otherwise identical to {@link #move(Position,Position,int)}, 
+   * and allows search algorithms to explore moves on a single board rather than a clone for each move.
+   * @param start the starting position of the move
+   * @param end the ending position of the move
+   * @param time the number of milliseconds taken to play the move
+   * @throws ImpossiblePositionException if the move is not legal
+   * **/
+  public void makeMove(Position start, Position end, int time) throws ImpossiblePositionException{
+    if(!isLegalMove(start,end)) throw new ImpossiblePositionException("Illegal Move: "+start+"-"+end);
+    long undo = play(start,end,time);
+    if(undoCount==undoRecords.length){
+      undoRecords = Arrays.copyOf(undoRecords, 2*undoCount);
+      undoTimes = Arrays.copyOf(undoTimes, 2*undoCount);
+    }
+    undoRecords[undoCount] = undo;
+    undoTimes[undoCount++] = time;
+  }
+
+  /**
+   * Executes a legal move so that it can later be reversed with {@link #unmakeMove()}.
+   * Method overloaded to allow for untimed games.
+   * @param start the starting position of the move
+   * @param end the ending position of the move
+   * @throws ImpossiblePositionException if the move is not legal
+   * **/
+  public void makeMove(Position start, Position end) throws ImpossiblePositionException{
+    makeMove(start,end,0);
+  }
+
+  /**
+   * Reverses the most recent move made with {@link #makeMove}, 
+   * restoring the pieces, captured pieces, history, turn, time and game over flag.
+   * Moves made with {@link #move} cannot be reversed, so none should be made 
+   * between a call to makeMove and the matching call to unmakeMove.
+   * @throws IllegalStateException if there is no move to reverse.
+   * **/
+  public void unmakeMove(){
+    if(undoCount==0) throw new IllegalStateException("No move to unmake.");
+    own();
+    long undo = undoRecords[--undoCount];
+    int from = (int)(undo>>>7)&0x7F, to = (int)undo&0x7F;
+    int moverCode = (int)(undo>>>UNDO_MOVER)&0x1F;
+    int takenCode = (int)(undo>>>UNDO_TAKEN)&0x1F;
+    Colour mCol = piece(moverCode).getColour();
+    timeLeft[mCol.ordinal()] += undoTimes[undoCount];
+    turn = Colour.values()[(int)(undo>>>UNDO_TURN)&3];
+    gameOver = (undo>>>UNDO_GAME_OVER&1)!=0;
+    declaredEnd = null;
+    if((undo>>>UNDO_TIMEOUT&1)!=0) return;//the move ran out of time, so no pieces moved
+    int castle = (int)(undo>>>UNDO_CASTLE)&3;
+    if(castle!=0){//put the rook back, and restore its castling square
+      int rookFrom = ordinal(mCol,0,castle==1?0:7), rookTo = ordinal(mCol,0,castle==1?3:5);
+      set(rookFrom,squares[rookTo]);
+      set(rookTo,(int)(undo>>>UNDO_ROOK_TO)&0x1F);
+    }
+    set(to,takenCode);
+    set(from,moverCode);
+    if(historyShared){//a snapshot may still read the entry that will be overwritten by the next move
+      history = history.clone();
+      historyShared = false;
+    }
+    moveCount--;
+    if(takenCode!=0){
+      capturedCount[mCol.ordinal()]--;
+      capturedValue[mCol.ordinal()] -= piece(takenCode).getValue();
+    }
   }
 
   /**
@@ -305,6 +737,34 @@ public class Board implements Cloneable, Serializable {
     move(start,end,0);
   }
   
+  /**
+   * Ends the game because the player whose turn it is did not choose a move in their remaining time.
+   * The player is charged the time taken, and at least one more millisecond than they had left, 
+   * so they are the loser as if a move had run out of time.
+   * Like {@link #move}, this cannot be reversed with {@link #unmakeMove()}.
+   * @param time the number of milliseconds the player took before their move was abandoned.
+   * **/
+  public void forfeit(int time){
+    own();
+    int player = turn.ordinal();
+    timeLeft[player] = Math.min(timeLeft[player]-time, -1);
+    gameOver = true;
+  }
+
+  /**
+   * Skips the turn of the player whose turn it is, without moving a piece,
+   * as the referee does when a player does not choose a move within the move limit of an untimed game.
+   * The pass is recorded in the history as {@link Move#PASS}, so the moves of each player keep their place in the order of play.
+   * Like {@link #move}, this cannot be reversed with {@link #unmakeMove()}.
+   * @throws IllegalStateException if the game is over.
+   * **/
+  public void pass(){
+    if(gameOver) throw new IllegalStateException("The game is over.");
+    own();
+    addToHistory(Move.PASS);
+    turn = Colour.values()[(turn.ordinal()+1)%3];
+  }
+
   /**
    * Gets the player whose turn it currently is
    * @return the colour of the player whose turn it is.
@@ -313,27 +773,96 @@ public class Board implements Cloneable, Serializable {
     return turn;
   }
 
+  /**
+   * Returns a 64 bit Zobrist hash of the position: the pieces on each square and the player whose turn it is.
+   * The hash is maintained as moves are made, so this takes constant time.
+   * Equal positions always have equal hashes, and unequal positions almost always have different hashes, 
+   * which can be confirmed with {@link #samePosition(Board)}.
+   * The history, captured pieces and time remaining are not part of the position.
+   * @return the hash of the position.
+   * **/
+  public long hash(){
+    return pieceHash ^ ZOBRIST[96*PIECES.length+turn.ordinal()];
+  }
+
+  /**
+   * Compares the position of this board with another, square by square.
+   * This is the full comparison that {@link #hash()} approximates.
+   * @param other the board to compare with.
+   * @return true if both boards have the same pieces on every square and the same player to move.
+   * **/
+  public boolean samePosition(Board other){
+    return turn==other.turn && Arrays.equals(squares, other.squares);
+  }
+
   /**
    * Returns the number of moves made so far.
    * @return the number of moves made in the game.
    * **/
   public int getMoveCount(){
-    return history.size();
+    return moveCount;
+  }
+
+  /**
+   * Returns whether the move at the corresponding index (starting from 0) was a pass, 
+   * made with {@link #pass()} when the referee skipped the player's turn.
+   * For a pass, {@link #getMove(int)}, {@link #getMoveStart(int)} and {@link #getMoveEnd(int)} return null, 
+   * so code reading the history of a game with a move limit should check this first.
+   * @param index the index of the move
+   * @return true if the player passed rather than moving a piece.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public boolean isPass(int index){
+    return Move.isPass(getPackedMove(index));
   }
 
   /**
    * returns the move made at the corresponding index (starting from 1).
    * @param index the index of the move
-   * @return an array containing the start position and the end position of the move, in that order
+   * @return an array containing the start position and the end position of the move, in that order, 
+   * or null if the player passed, as reported by {@link #isPass(int)}.
    * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
    * **/
   public Position[] getMove(int index){
-    if(0<=index && index<getMoveCount()){
-      return history.get(index).clone();
+    return Move.toArray(getPackedMove(index));
+  }
+
+  /**
+   * returns the move made at the corresponding index (starting from 0), packed as described in {@link Move}.
+   * Unlike {@link #getMove(int)}, this does not allocate an array.
+   * @param index the index of the move
+   * @return the packed move, which is {@link Move#PASS} if the player passed.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public int getPackedMove(int index){
+    if(0<=index && index<moveCount){
+      return history[index];
     }
     else throw new ArrayIndexOutOfBoundsException("Index out of bounds.");
   }
 
+  /**
+   * returns the starting position of the move made at the corresponding index (starting from 0).
+   * @param index the index of the move
+   * @return the position the moving piece started from, or null if the player passed, as reported by {@link #isPass(int)}.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public Position getMoveStart(int index){
+    int move = getPackedMove(index);
+    return Move.isPass(move) ? null : Move.start(move);
+  }
+
+  /**
+   * returns the end position of the move made at the corresponding index (starting from 0).
+   * @param index the index of the move
+   * @return the position the moving piece moved to, or null if the player passed, as reported by {@link #isPass(int)}.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public Position getMoveEnd(int index){
+    int move = getPackedMove(index);
+    return Move.isPass(move) ? null : Move.end(move);
+  }
+
   /**
    * Calculates a players score, used for some variants of the game.
    * The score is the combined piece values of the players pieces on the board,
@@ -345,13 +874,27 @@ public class Board implements Cloneable, Serializable {
    * @return the score of the player.
    * **/
   public int score(Colour player){
-    int score = 0;
-    for(Position p: Position.values()){
-      Piece piece = board.get(p);
-      if(piece!=null && piece.getColour()==player) score+=piece.getValue();
-    }
-    for(Piece piece: captured.get(player)) score+=piece.getValue();  
-    return score;
+    return material[player.ordinal()]+capturedValue[player.ordinal()];
+  }
+
+  /**
+   * The combined piece values of a player's pieces on the board, the first part of {@link #score(Colour)}.
+   * This is maintained as moves are made, so takes constant time.
+   * @param player the colour of the player
+   * @return the value of the player's pieces on the board.
+   * **/
+  public int getMaterial(Colour player){
+    return material[player.ordinal()];
+  }
+
+  /**
+   * The combined piece values of the pieces a player has taken, the second part of {@link #score(Colour)}.
+   * This is maintained as moves are made, so takes constant time.
+   * @param player the colour of the player
+   * @return the value of the pieces taken by the player.
+   * **/
+  public int getCapturedValue(Colour player){
+    return capturedValue[player.ordinal()];
   }
 
   /** 
@@ -361,18 +904,75 @@ public class Board implements Cloneable, Serializable {
     return gameOver;
   }
 
+  /**
+   * Ends the game as a draw, for a reason decided by the referee rather than by a move.
+   * Neither {@link #getWinner()} nor {@link #getLoser()} will name a player.
+   * @param reason {@link EndReason#REPETITION} or {@link EndReason#MOVE_LIMIT}.
+   * @throws IllegalArgumentException if the reason is not one the referee can declare a draw for.
+   * @throws IllegalStateException if the game is already over.
+   * **/
+  public void draw(EndReason reason){
+    if(reason!=EndReason.REPETITION && reason!=EndReason.MOVE_LIMIT) 
+      throw new IllegalArgumentException("A draw cannot be declared for "+reason);
+    declareEnd(reason);
+  }
+
+  /**
+   * Ends the game and decides it on material, for example when it has gone on too long to finish.
+   * The player with the highest score is the winner and the player with the lowest score is the loser,
+   * where a player tied for the highest or lowest score is not named.
+   * @throws IllegalStateException if the game is already over.
+   * **/
+  public void adjudicate(){
+    declareEnd(EndReason.ADJUDICATION);
+  }
+
+  /** Ends the game for a reason decided by the referee. **/
+  private void declareEnd(EndReason reason){
+    if(gameOver) throw new IllegalStateException("The game is already over.");
+    gameOver = true;
+    declaredEnd = reason;
+  }
+
+  /**
+   * @return how the game ended, or null if it has not ended.
+   * **/
+  public EndReason getEndReason(){
+    if(!gameOver) return null;
+    if(declaredEnd!=null) return declaredEnd;
+    for(Colour c: Colour.values())
+      if(tookKing(c)) return EndReason.KING_CAPTURED;
+    return EndReason.OUT_OF_TIME;
+  }
+
+  /**
+   * @param best true for the highest score, false for the lowest.
+   * @return the only player with the highest (or lowest) score, or null if two or more players share it.
+   * **/
+  private Colour extremeScore(boolean best){
+    Colour extreme = null; int value = 0; boolean tied = false;
+    for(Colour c: Colour.values()){
+      int score = best ? score(c) : -score(c);
+      if(extreme==null || score>value){
+        extreme = c; value = score; tied = false;
+      }
+      else if(score==value) tied = true;
+    }
+    return tied ? null : extreme;
+  }
+
   /**
    * The winner of the game is the player who takes another player's King,
-   * or the player with the highest score when another player runs out of time.
+   * or the player with the highest score when another player runs out of time 
+   * or the game is adjudicated.
    * @return the winner of the game or null if it's a draw or not yet decided.
    * **/
   public Colour getWinner(){
+    if(declaredEnd!=null) return declaredEnd==EndReason.ADJUDICATION ? extremeScore(true) : null;
     if(gameOver){
       for(Colour c: Colour.values()){
-        for(Piece taken: captured.get(c)){
-          if(taken.getType()==PieceType.KING) return c;
-        }
-        if(timeLeft.get(c)<0){
+        if(tookKing(c)) return c;
+        if(timeLeft[c.ordinal()]<0){
           Colour winner = null; int max = Integer.MIN_VALUE;
           for(Colour d: Colour.values()){
             int score = score(d);
@@ -389,16 +989,19 @@ public class Board implements Cloneable, Serializable {
 
   /**
    * The loser of the game is the player who had their King taken,
-   * or the player who ran out of time.
+   * or the player who ran out of time, 
+   * or the player with the lowest score when the game is adjudicated.
    * @return the loser of the game or null if its a draw or not yet decided.
    * **/
   public Colour getLoser(){
+    if(declaredEnd!=null) return declaredEnd==EndReason.ADJUDICATION ? extremeScore(false) : null;
     if(gameOver){
       for(Colour c: Colour.values()){
-        for(Piece taken: captured.get(c)){
+        for(int i = 0; i<capturedCount[c.ordinal()]; i++){
+          Piece taken = piece(captured[CAPTURES*c.ordinal()+i]);
           if(taken.getType()==PieceType.KING) return taken.getColour();
         }
-        if(timeLeft.get(c)<0) return c;
+        if(timeLeft[c.ordinal()]<0) return c;
       }
     }
     return null;
@@ -409,7 +1012,175 @@ public class Board implements Cloneable, Serializable {
    * @return the time remaining, in milliseconds.
    * **/
   public int getTimeLeft(Colour colour){
-    return timeLeft.get(colour);
+    return timeLeft[colour.ordinal()];
+  }
+
+  /**
+   * Records the time a player took to choose a move, on both the wall clock and the processor clock.
+   * The time left is charged separately, by {@link #move(Position,Position,int)}, on whichever clock the game is played with, 
+   * so that both measures are available when the game ends. 
+   * The time used is not restored by {@link #unmakeMove()}, and is not included in {@link #encode(ByteBuffer)}.
+   * @param player the colour of the player.
+   * @param wallTime the real time taken, in milliseconds.
+   * @param cpuTime the processor time used, in milliseconds.
+   * **/
+  public void recordTimeUsed(Colour player, int wallTime, int cpuTime){
+    own();
+    timeUsed[2*player.ordinal()] += wallTime;
+    timeUsed[2*player.ordinal()+1] += cpuTime;
+  }
+
+  /**
+   * @param player the colour of the player.
+   * @return the real time the player has taken to choose their moves, in milliseconds, as recorded by the referee.
+   * **/
+  public int getWallTimeUsed(Colour player){
+    return timeUsed[2*player.ordinal()];
+  }
+
+  /**
+   * @param player the colour of the player.
+   * @return the processor time the player has used to choose their moves, in milliseconds, as recorded by the referee.
+   * **/
+  public int getCpuTimeUsed(Colour player){
+    return timeUsed[2*player.ordinal()+1];
+  }
+
+  /**
+   * Writes the position to a buffer in a fixed size binary form of {@link #ENCODED_SIZE} bytes, 
+   * without the history of moves. 
+   * @param buffer the buffer to write to, at its current position.
+   * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining.
+   * **/
+  public void encode(ByteBuffer buffer){
+    encode(buffer,false);
+  }
+
+  /**
+   * Writes the position to a buffer in a compact binary form, which can be read back with {@link #decode(ByteBuffer)}.
+   * The position takes {@link #ENCODED_SIZE} bytes: 
+   * 48 bytes with the piece type of each square in a nibble (0 if vacant, otherwise 1 plus the type ordinal), 
+   * low nibble first; 12 bytes each marking the squares of Blue's and Green's pieces (the rest are Red's), 
+   * in Position ordinal order, least significant bit first; 
+   * a flags byte with the turn in bits 0-1, 4 if the game is over, 8 if a history follows, 
+   * and in bits 4-6 one more than the ordinal of the {@link EndReason} if the referee ended the game, or 0 otherwise; 
+   * the time left for each player as an int; 
+   * and for each player 6 bytes of nibbles counting the pieces of each type 
+   * they have taken from the next player and then from the player after.
+   * The optional history is the number of moves as an unsigned varint (7 bits per byte, least significant first) 
+   * followed by each move as a short, packed as described in {@link Move}.
+   * The order in which pieces were taken and the moves that can be reversed with {@link #unmakeMove()} are not encoded.
+   * @param buffer the buffer to write to, at its current position.
+   * @param withHistory true if the history of moves should follow the position.
+   * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining.
+   * **/
+  public void encode(ByteBuffer buffer, boolean withHistory){
+    for(int square = 0; square<96; square += 2)
+      buffer.put((byte)(typeNibble(squares[square]) | typeNibble(squares[square+1])<<4));
+    for(int colour = 0; colour<2; colour++)
+      for(int i = 0; i<12; i++) buffer.put((byte)(colourOccupied[2*colour+i/8]>>>8*(i%8)));
+    buffer.put((byte)(turn.ordinal() | (gameOver?ENCODED_GAME_OVER:0) | (withHistory?ENCODED_HISTORY:0)
+      | (declaredEnd==null?0:declaredEnd.ordinal()+1)<<ENCODED_ENDING_SHIFT));
+    for(int colour = 0; colour<3; colour++) buffer.putInt(timeLeft[colour]);
+    int[] counts = new int[PIECES.length];
+    for(int capturer = 0; capturer<3; capturer++){
+      Arrays.fill(counts,0);
+      for(int i = 0; i<capturedCount[capturer]; i++) counts[captured[CAPTURES*capturer+i]-1]++;
+      for(int i = 0; i<2*TYPES; i += 2)
+        buffer.put((byte)(counts[capturedCode(capturer,i)-1] | counts[capturedCode(capturer,i+1)-1]<<4));
+    }
+    if(withHistory){
+      for(int count = moveCount; ; count >>>= 7){
+        if(count<0x80){buffer.put((byte)count); break;}
+        buffer.put((byte)(count&0x7F | 0x80));
+      }
+      for(int i = 0; i<moveCount; i++) buffer.putShort(history[i]);
+    }
+  }
+
+  /** @return the code of the i-th kind of piece a player can take: the types of the next player, then of the player after. **/
+  private static int capturedCode(int capturer, int i){
+    return 1+TYPES*((capturer+1+i/TYPES)%3)+i%TYPES;
+  }
+
+  /** @return the nibble encoding the type of the piece with the given code, or 0 for a vacant square. **/
+  private static int typeNibble(int code){
+    return code==0?0:1+(code-1)%TYPES;
+  }
+
+  /**
+   * @param withHistory whether the history of moves is included.
+   * @return the number of bytes {@link #encode(ByteBuffer,boolean)} writes for this board.
+   * **/
+  public int encodedSize(boolean withHistory){
+    if(!withHistory) return ENCODED_SIZE;
+    int varint = 1;
+    for(int count = moveCount; count>=0x80; count >>>= 7) varint++;
+    return ENCODED_SIZE+varint+2*moveCount;
+  }
+
+  /**
+   * Reads a board written by {@link #encode(ByteBuffer,boolean)}.
+   * The position, turn, time left, captured pieces and history (if it was encoded) are restored, 
+   * and the hash and material totals are recomputed from the pieces.
+   * Captured pieces are listed in order of colour and type rather than the order they were taken,
+   * and there are no moves to unmake.
+   * @param buffer the buffer to read from, at its current position, which is advanced past the board.
+   * @return the decoded board.
+   * @throws IllegalArgumentException if the data does not describe a valid board.
+   * @throws java.nio.BufferUnderflowException if the buffer ends before the board.
+   * **/
+  public static Board decode(ByteBuffer buffer){
+    Board board = new Board();
+    byte[] types = new byte[48];
+    buffer.get(types);
+    long[] masks = new long[4];
+    for(int colour = 0; colour<2; colour++)
+      for(int i = 0; i<12; i++) masks[2*colour+i/8] |= (buffer.get()&0xFFL)<<8*(i%8);
+    for(int square = 0; square<96; square++){
+      int type = types[square/2]>>>4*(square%2)&0xF;
+      long bit = masks[square>>>6]>>>square&1 | (masks[2+(square>>>6)]>>>square&1)<<1;
+      if(type>TYPES || bit==3 || (type==0 && bit!=0))
+        throw new IllegalArgumentException("Invalid encoding of square "+Position.get(square));
+      int colour = bit==1?0:bit==2?1:2;
+      if(type!=0) board.set(square,1+colour*TYPES+type-1);
+    }
+    int flags = buffer.get();
+    if((flags&3)==3) throw new IllegalArgumentException("Invalid encoding of turn");
+    board.turn = Colour.values()[flags&3];
+    board.gameOver = (flags&ENCODED_GAME_OVER)!=0;
+    int ending = flags>>>ENCODED_ENDING_SHIFT&7;
+    if(ending>EndReason.values().length || (ending!=0 && !board.gameOver))
+      throw new IllegalArgumentException("Invalid encoding of game ending");
+    board.declaredEnd = ending==0 ? null : EndReason.values()[ending-1];
+    for(int colour = 0; colour<3; colour++) board.timeLeft[colour] = buffer.getInt();
+    for(int capturer = 0; capturer<3; capturer++){
+      byte[] nibbles = new byte[TYPES];
+      buffer.get(nibbles);
+      for(int i = 0; i<2*TYPES; i++){
+        int count = nibbles[i/2]>>>4*(i%2)&0xF, code = capturedCode(capturer,i);
+        if(board.capturedCount[capturer]+count>CAPTURES)
+          throw new IllegalArgumentException("Invalid encoding of captured pieces");
+        for(int j = 0; j<count; j++){
+          board.captured[CAPTURES*capturer+board.capturedCount[capturer]++] = (byte)code;
+          board.capturedValue[capturer] += PIECES[code-1].getValue();
+        }
+      }
+    }
+    if((flags&ENCODED_HISTORY)!=0){
+      int count = 0;
+      for(int shift = 0; ; shift += 7){
+        int b = buffer.get();
+        if(shift>28) throw new IllegalArgumentException("Invalid encoding of history length");
+        count |= (b&0x7F)<<shift;
+        if(b>=0) break;
+      }
+      if(count<0) throw new IllegalArgumentException("Invalid encoding of history length");
+      board.history = new short[Math.max(16,count)];
+      for(int i = 0; i<count; i++) board.history[i] = buffer.getShort();
+      board.moveCount = count;
+    }
+    return board;
   }
 
   /**
@@ -419,12 +1190,73 @@ public class Board implements Cloneable, Serializable {
    * **/ 
   public Object clone() throws CloneNotSupportedException{
     Board clone = (Board) super.clone();
-    clone.board = (HashMap<Position,Piece>)board.clone();
-    clone.history = new ArrayList<Position[]>();
-    for(Position[] move: history) clone.history.add(move.clone());
-    clone.timeLeft = (HashMap<Colour,Integer>) timeLeft.clone();
-    clone.captured = new HashMap<Colour,ArrayList<Piece>>();
-    for(Colour c: Colour.values()) clone.captured.put(c, (ArrayList<Piece>) captured.get(c).clone());
+    clone.bitboards = bitboards.clone();
+    clone.occupied = occupied.clone();
+    clone.colourOccupied = colourOccupied.clone();
+    clone.squares = squares.clone();
+    clone.history = history.clone();
+    clone.timeLeft = timeLeft.clone();
+    clone.timeUsed = timeUsed.clone();
+    clone.undoRecords = undoRecords.clone();
+    clone.undoTimes = undoTimes.clone();
+    clone.captured = captured.clone();
+    clone.capturedCount = capturedCount.clone();
+    clone.material = material.clone();
+    clone.capturedValue = capturedValue.clone();
+    clone.attacks = new long[6];//the cache is never shared, so a snapshot can fill its own
+    clone.attacksValid = 0;
+    clone.shared = clone.historyShared = clone.snapshot = false;
     return clone;
   }
+
+  /**
+   * Returns a read only view of the board state in constant time, 
+   * by sharing the state of this board rather than copying it.
+   * Later moves on this board do not affect the snapshot, 
+   * as this board copies its fixed size state before its next change, 
+   * and only ever appends to the history it shares.
+   * If a move is made on the snapshot it first copies all of its state (including the history), 
+   * becoming an independent board, so the snapshot can be used as if it were a clone.
+   * This is how the referee gives the board to agents, so that agents which only read the board
+   * do not pay for a copy of the whole game on every move.
+   * @return a snapshot of the board state.
+   * **/
+  public Board snapshot(){
+    try{
+      Board snapshot = (Board) super.clone();
+      snapshot.shared = snapshot.historyShared = snapshot.snapshot = true;
+      snapshot.attacks = new long[6];
+      snapshot.attacksValid = 0;
+      shared = historyShared = true;
+      return snapshot;
+    }catch(CloneNotSupportedException e){
+      throw new RuntimeException("Board must be cloneable", e);
+    }
+  }
+
+  /**
+   * Copies any state shared with a snapshot, before it is modified.
+   * A snapshot copies everything, while the board a snapshot was taken from 
+   * keeps sharing its history, which it only appends to. 
+   * **/
+  private void own(){
+    if(!shared) return;
+    bitboards = bitboards.clone();
+    occupied = occupied.clone();
+    colourOccupied = colourOccupied.clone();
+    squares = squares.clone();
+    timeLeft = timeLeft.clone();
+    timeUsed = timeUsed.clone();
+    undoRecords = undoRecords.clone();
+    undoTimes = undoTimes.clone();
+    captured = captured.clone();
+    capturedCount = capturedCount.clone();
+    material = material.clone();
+    capturedValue = capturedValue.clone();
+    if(snapshot){
+      history = history.clone();
+      historyShared = snapshot = false;
+    }
+    shared = false;
+  }
 }
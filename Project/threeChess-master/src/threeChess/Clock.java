@@ -0,0 +1,18 @@
+package threeChess;
+
+/**
+ * The clocks the referee can use to measure the time a player takes to choose a move.
+ * **/
+public enum Clock{
+  /** The real time that passes between asking the agent for a move and receiving it. **/
+  WALL,
+  /**
+   * The processor time used by the threads choosing the move, measured with {@link java.lang.management.ThreadMXBean}.
+   * Pauses for garbage collection and time given to other processes or other games on the same host 
+   * are not charged to the player, so many games can be played at once without changing the results.
+   * The thread the referee starts for the move and every thread started from it during the move are measured,
+   * as they share a thread group, but not threads the agent started earlier or borrows from a shared pool, such as the common fork join pool.
+   * A thread is measured every few milliseconds, so a thread that ends during the move may not be charged for its last few milliseconds.
+   * **/
+  CPU
+}
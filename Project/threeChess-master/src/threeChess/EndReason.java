@@ -0,0 +1,20 @@
+package threeChess;
+
+/**
+ * The ways a game can end, as given by {@link Board#getEndReason()}.
+ * **/
+public enum EndReason{
+  /** A King was taken: the taker wins and the King's owner loses. **/
+  KING_CAPTURED,
+  /** A player ran out of time and loses, and the opponent with the highest score wins. **/
+  OUT_OF_TIME,
+  /** The referee declared a draw because the same position was repeated too often. **/
+  REPETITION,
+  /** The referee declared a draw because the game reached its maximum number of moves. **/
+  MOVE_LIMIT,
+  /** 
+   * The referee stopped the game and decided it on material: 
+   * the player with the highest score wins and the player with the lowest score loses, unless they are tied.
+   * **/
+  ADJUDICATION
+}
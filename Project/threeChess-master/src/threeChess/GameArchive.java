@@ -0,0 +1,201 @@
+package threeChess;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.*;
+
+/**
+ * A read only archive of recorded games, for mining tournament results.
+ * An archive is a data file of game records in the format described in {@link GameRecord},
+ * which is only ever appended to, and an index file holding the offset of each record in the data file as a big endian long.
+ * The data file is memory mapped in windows of whole records,
+ * so any game can be read in place without reading or decoding the games before it.
+ * Games are added to an archive with the recorder returned by {@link #recorder(File,File)}.
+ * If a recorder is stopped without being closed, the index may end with entries for records that never reached the data file,
+ * so when an archive is opened, index entries at or beyond the end of the data file, and a partly written last entry, are ignored.
+ * Run with "java -cp bin threeChess.GameArchive data index" to print a summary of an archive.
+ * **/
+public final class GameArchive implements Closeable{
+
+  /** The largest number of bytes mapped in one window, unless a single record is larger **/
+  private static final long WINDOW = 1L<<30;
+
+  private final FileChannel channel;
+  /** The offset of each record in the data file **/
+  private final LongBuffer offsets;
+  /** The mapped windows of the data file, each holding whole records **/
+  private final List<MappedByteBuffer> windows = new ArrayList<MappedByteBuffer>();
+  /** The index of the first record in each window, with the number of records appended **/
+  private final int[] firstRecords;
+  /** The offset in the data file of the start of each window **/
+  private final long[] windowStarts;
+
+  private GameArchive(FileChannel channel, LongBuffer offsets) throws IOException{
+    this.channel = channel;
+    this.offsets = offsets;
+    List<Integer> firsts = new ArrayList<Integer>();
+    List<Long> starts = new ArrayList<Long>();
+    long dataSize = channel.size();
+    int count = 0;
+    while(count<offsets.limit() && offsets.get(count)<dataSize) count++;
+    offsets.limit(count);//the rest refer to records lost when a recorder was stopped
+    int record = 0;
+    while(record<count){
+      long start = offsets.get(record);
+      int next = record+1;
+      while(next<count && offsets.get(next)-start<=WINDOW) next++;
+      long end = next<count ? offsets.get(next) : dataSize;
+      if(end>dataSize || end<start) throw new IOException("Archive index does not match data file");
+      windows.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end-start));
+      firsts.add(record);
+      starts.add(start);
+      record = next;
+    }
+    firsts.add(count);
+    firstRecords = firsts.stream().mapToInt(Integer::intValue).toArray();
+    windowStarts = starts.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * Opens an archive for reading.
+   * Games added to the archive after it has been opened are not seen by the reader.
+   * @param data the data file of game records.
+   * @param index the index file of record offsets.
+   * @return the opened archive.
+   * @throws IOException if either file cannot be read, or they do not match.
+   * **/
+  public static GameArchive open(File data, File index) throws IOException{
+    FileChannel channel = FileChannel.open(data.toPath(), StandardOpenOption.READ);
+    try(FileChannel indexChannel = FileChannel.open(index.toPath(), StandardOpenOption.READ)){
+      long entries = indexChannel.size()/8;
+      if(entries>Integer.MAX_VALUE/8) throw new IOException("Archive index too large");
+      LongBuffer offsets = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, 8*entries).asLongBuffer();
+      return new GameArchive(channel, offsets);
+    }catch(IOException | RuntimeException e){
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a recorder that appends games to an archive,
+   * writing each game to the data file and then its offset to the index.
+   * Each record is flushed to the data file before its offset is written, so the index never gets ahead of the data.
+   * The files are created if they do not exist.
+   * @param data the data file of game records.
+   * @param index the index file of record offsets.
+   * @return a recorder adding games to the archive, which must be closed to write the buffered games.
+   * @throws IOException if either file cannot be opened for writing.
+   * **/
+  public static GameRecorder recorder(File data, File index) throws IOException{
+    return new ArchiveRecorder(data, index);
+  }
+
+  /** A binary recorder that also writes the offset of each record to an index. **/
+  private static class ArchiveRecorder extends BinaryGameRecorder{
+    private final DataOutputStream index;
+    private long offset;
+
+    ArchiveRecorder(File data, File index) throws IOException{
+      super(data);
+      offset = data.length();
+      this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index, true)));
+    }
+
+    protected synchronized void write(byte[] record){
+      super.write(record);
+      flush();//the record is in the data file before its offset can reach the index file
+      try{
+        index.writeLong(offset);
+      }catch(IOException e){
+        throw new UncheckedIOException("Error writing archive index", e);
+      }
+      offset += record.length;
+    }
+
+    public synchronized void close(){
+      super.close();//each record was flushed before its offset was written, so the order the files are closed in does not matter
+      try{
+        index.close();
+      }catch(IOException e){
+        throw new UncheckedIOException("Error closing archive index", e);
+      }
+    }
+  }
+
+  /** @return the number of games in the archive. **/
+  public int size(){
+    return offsets.limit();
+  }
+
+  /**
+   * Gets a game from the archive, without reading any other game.
+   * @param index the index of the game, starting from 0.
+   * @return a view of the game record.
+   * @throws IndexOutOfBoundsException if there is no such game.
+   * **/
+  public GameRecord get(int index){
+    return get(index, new GameRecord());
+  }
+
+  /**
+   * Gets a game from the archive, reusing a view so no objects are created.
+   * @param index the index of the game, starting from 0.
+   * @param view the view to point at the game.
+   * @return the view.
+   * @throws IndexOutOfBoundsException if there is no such game.
+   * **/
+  public GameRecord get(int index, GameRecord view){
+    if(index<0 || index>=size()) throw new IndexOutOfBoundsException("No game "+index+" in archive of "+size());
+    int window = Arrays.binarySearch(firstRecords, index);
+    if(window<0) window = -window-2;//the window whose first record is before the index
+    return view.wrap(windows.get(window), (int)(offsets.get(index)-windowStarts[window]));
+  }
+
+  /**
+   * Streams the games in the archive that match a filter, in the order they were added.
+   * Each game is a separate view, and only the fields the filter reads are decoded.
+   * @param filter the test for the games to include.
+   * @return a stream of the matching games.
+   * **/
+  public Stream<GameRecord> stream(Predicate<GameRecord> filter){
+    return IntStream.range(0, size()).mapToObj(this::get).filter(filter);
+  }
+
+  /**
+   * Closes the data file. The records may still be mapped until they are garbage collected,
+   * but views of them should not be used after the archive is closed.
+   * **/
+  public void close() throws IOException{
+    channel.close();
+  }
+
+  /**
+   * Prints the number of games in an archive, and the wins, losses and moves for each agent.
+   * The arguments are the data file and the index file.
+   **/
+  public static void main(String[] args) throws IOException{
+    try(GameArchive archive = open(new File(args[0]), new File(args[1]))){
+      Map<String,int[]> agents = new TreeMap<String,int[]>();
+      long moves = 0;
+      GameRecord game = new GameRecord();
+      for(int i = 0; i<archive.size(); i++){
+        archive.get(i, game);
+        moves += game.getMoveCount();
+        for(Colour c: Colour.values()){
+          int[] stats = agents.computeIfAbsent(game.getAgent(c), name -> new int[3]);
+          if(game.getScore(c)>0) stats[0]++;
+          else if(game.getScore(c)<0) stats[1]++;
+          stats[2]++;
+        }
+      }
+      System.out.println(archive.size()+" games, "+moves+" moves");
+      for(Map.Entry<String,int[]> entry: agents.entrySet())
+        System.out.println(entry.getKey()+"\twon:"+entry.getValue()[0]+"\tlost:"+entry.getValue()[1]+"\tplayed:"+entry.getValue()[2]);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package threeChess;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hosts many threeChess games at the same time.
+ * Each game is played by its own task, which spends most of its time waiting for its agents to move.
+ * On Java 21 and later the tasks run on virtual threads, which do not hold a platform thread while they wait.
+ * Virtual threads are not available on Java 17, which the project is built for, so there this is a thread per game host:
+ * each game has a daemon platform thread of its own, from a pool that grows as needed,
+ * and the number of games that can be hosted at once is limited by the threads the system allows.
+ * {@link #isVirtual()} reports which kind of host it is.
+ * The moves of autonomous agents are limited by a fixed number of permits, each held by the one thread choosing a move,
+ * so however many games are hosted, no more agents than there are permits compete for the processors, 
+ * apart from the threads of abandoned moves, which run at the minimum priority until they end.
+ * A move waiting for a permit is not abandoned, but the wait is charged to the player on the wall clock,
+ * so the {@link Clock#CPU} clock should be used for timed games when there are more games than permits.
+ * An agent instance should only play in one hosted game at a time, as agents may keep state between moves.
+ * Agents do not ponder in hosted games, as pondering would compete for the processors outside the limit on moves.
+ * **/
+public final class GameHost implements AutoCloseable{
+
+  private final ExecutorService games;
+  private final Semaphore moves;
+  private final boolean virtual;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger finished = new AtomicInteger();
+
+  /**
+   * Creates a game host.
+   * @param threads the number of moves of autonomous agents chosen at once, usually the number of processors.
+   * @throws IllegalArgumentException if the number of threads is not positive.
+   * **/
+  public GameHost(int threads){
+    if(threads<1) throw new IllegalArgumentException("A game host needs at least one thread");
+    ExecutorService virtualThreads = virtualThreadExecutor();
+    virtual = virtualThreads!=null;
+    games = virtual ? virtualThreads : Executors.newCachedThreadPool(daemon("game-"));
+    moves = new Semaphore(threads, true);//fair, so moves are started in the order they are requested
+  }
+
+  /** @return an executor starting a virtual thread per task, or null if they are not supported by this Java virtual machine. **/
+  private static ExecutorService virtualThreadExecutor(){
+    try{
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch(ReflectiveOperationException | RuntimeException e){//before Java 21, or with preview features disabled
+      return null;
+    }
+  }
+
+  /** @return a factory for numbered daemon threads, so hosted games cannot stop the program from exiting. **/
+  private static ThreadFactory daemon(String prefix){
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix+count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Starts a game, as played by {@link ThreeChess#play(Agent,Agent,Agent,int,int,Clock,Adjudication,GameRecorder,boolean)}
+   * without a display.
+   * @param blue the agent playing the blue pieces.
+   * @param green the agent playing the green pieces.
+   * @param red the Agent playing the red pieces.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param moveLimit the time allowed for each move in an untimed game (in milliseconds), or less than or equal to zero for no limit.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param recorder the recorder to write the game to, which must be safe to use from several threads, and is not closed when the game ends.
+   * @return a future holding the scores for blue, green and red, in that order, or the exception that ended the game.
+   * Cancelling the future interrupts the game's thread, so a game waiting for the move of an autonomous agent 
+   * ends as if that agent had made an illegal move.
+   * @throws RejectedExecutionException if the host has been closed.
+   * **/
+  public Future<int[]> play(Agent blue, Agent green, Agent red, int timeLimit, int moveLimit, Clock clock, Adjudication adjudication,
+      GameRecorder recorder){
+    return games.submit(() -> {
+      active.incrementAndGet();
+      try{
+        return ThreeChess.play(blue, green, red, timeLimit, moveLimit, clock, adjudication, recorder, false, moves);
+      }
+      finally{
+        active.decrementAndGet();
+        finished.incrementAndGet();
+      }
+    });
+  }
+
+  /** @return true if games are played on virtual threads, or false if they are played on platform threads. **/
+  public boolean isVirtual(){
+    return virtual;
+  }
+
+  /** @return the number of games being played. **/
+  public int getActive(){
+    return active.get();
+  }
+
+  /**
+   * @return an estimate of the number of moves waiting for a permit to start,
+   * which is the number of games waiting for a processor.
+   * **/
+  public int getWaiting(){
+    return moves.getQueueLength();
+  }
+
+  /** @return the number of games that have ended, including those that ended with an exception or were cancelled while playing. **/
+  public int getFinished(){
+    return finished.get();
+  }
+
+  /**
+   * Stops accepting games, and waits for the games already started to end.
+   * If the waiting thread is interrupted, the games are interrupted, and the host closes without waiting for them.
+   * **/
+  public void close(){
+    games.shutdown();
+    try{
+      while(!games.awaitTermination(1, TimeUnit.MINUTES));
+    }
+    catch(InterruptedException e){
+      games.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public String toString(){
+    return "active:"+getActive()+", waiting:"+getWaiting()+", finished:"+getFinished();
+  }
+}
@@ -0,0 +1,234 @@
+package threeChess;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read only view of a game in the binary format written by {@link BinaryGameRecorder}.
+ * The view reads fields directly from the buffer holding the record when they are requested,
+ * so a record can be examined without decoding it, and one view can be moved between records with {@link #wrap}.
+ * A record is laid out as follows, with all numbers big endian:
+ * <pre>
+ * int     the number of bytes in the record after this int
+ * byte    the format version, currently 3
+ * long    the time the game started, in milliseconds since the epoch
+ * int     the time limit of the game in seconds, or a value less than or equal to zero if untimed
+ * byte[3] the scores of blue, green and red
+ * byte    the ordinal of the winning colour, or -1 if there is none
+ * byte    the ordinal of the losing colour, or -1 if there is none
+ * byte    the ordinal of the {@link Clock} used to charge the players
+ * byte    the ordinal of the {@link EndReason}, or -1 if a player made an illegal move
+ * int[3]  the time left for blue, green and red, in milliseconds
+ * int     the number of moves
+ * 3 names the names of the blue, green and red agents, each an unsigned short length and UTF-8 bytes
+ * moves   each move as a short, packed as described in {@link Move}, or {@link Move#PASS} for a skipped turn,
+ *         followed by ints of the milliseconds taken and the milliseconds of processor time used
+ * </pre>
+ * **/
+public final class GameRecord{
+
+  /** The version of the record format **/
+  static final byte VERSION = 3;
+  /** Offsets of the fixed size fields of a record **/
+  static final int LENGTH = 0, FORMAT = 4, START_TIME = 5, TIME_LIMIT = 13, SCORES = 17, WINNER = 20, LOSER = 21,
+    CLOCK = 22, END_REASON = 23, TIME_LEFT = 24, MOVE_COUNT = 36, NAMES = 40;
+  /** The number of bytes used for each move **/
+  static final int MOVE_SIZE = 10;
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int moves;//offset of the first move, after the variable length names
+
+  /** Creates a view that must be pointed at a record with {@link #wrap} before use. **/
+  public GameRecord(){}
+
+  /**
+   * Creates a view of the record at an offset in a buffer.
+   * @param buffer the buffer holding the record.
+   * @param offset the index of the first byte of the record.
+   * **/
+  public GameRecord(ByteBuffer buffer, int offset){
+    wrap(buffer, offset);
+  }
+
+  /**
+   * Points this view at the record at an offset in a buffer.
+   * Only the names are read, to find where the moves start.
+   * @param buffer the buffer holding the record.
+   * @param offset the index of the first byte of the record.
+   * @return this view.
+   * @throws IllegalArgumentException if the record is of an unknown version or does not fit in the buffer.
+   * **/
+  public GameRecord wrap(ByteBuffer buffer, int offset){
+    if(buffer.get(offset+FORMAT)!=VERSION)
+      throw new IllegalArgumentException("Unknown game record version "+buffer.get(offset+FORMAT));
+    this.buffer = buffer;
+    this.offset = offset;
+    int position = offset+NAMES;
+    for(int i = 0; i<3; i++) position += 2+Short.toUnsignedInt(buffer.getShort(position));
+    moves = position;
+    if(moves+MOVE_SIZE*getMoveCount()!=offset+size()) throw new IllegalArgumentException("Corrupt game record");
+    return this;
+  }
+
+  /** @return the number of bytes in the record, including its length field. **/
+  public int size(){
+    return 4+buffer.getInt(offset+LENGTH);
+  }
+
+  /** @return the time the game started, in milliseconds since the epoch. **/
+  public long getStartTime(){
+    return buffer.getLong(offset+START_TIME);
+  }
+
+  /** @return the cumulative time each player had (in seconds), or a value less than or equal to zero for an untimed game. **/
+  public int getTimeLimit(){
+    return buffer.getInt(offset+TIME_LIMIT);
+  }
+
+  /** @return the clock the players were charged with. **/
+  public Clock getClock(){
+    return Clock.values()[buffer.get(offset+CLOCK)];
+  }
+
+  /**
+   * @param colour the colour of the player.
+   * @return the name of the agent playing that colour.
+   * **/
+  public String getAgent(Colour colour){
+    int position = offset+NAMES;
+    for(int i = 0; i<colour.ordinal(); i++) position += 2+Short.toUnsignedInt(buffer.getShort(position));
+    byte[] name = new byte[Short.toUnsignedInt(buffer.getShort(position))];
+    for(int i = 0; i<name.length; i++) name[i] = buffer.get(position+2+i);
+    return new String(name, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param colour the colour of the player.
+   * @return the player's score: +1 for a win, -1 for a loss, 0 otherwise, and -2 for an illegal move.
+   * **/
+  public int getScore(Colour colour){
+    return buffer.get(offset+SCORES+colour.ordinal());
+  }
+
+  /** @return the winner of the game, or null if there is none. **/
+  public Colour getWinner(){
+    return colour(buffer.get(offset+WINNER));
+  }
+
+  /** @return the loser of the game, or null if there is none. **/
+  public Colour getLoser(){
+    return colour(buffer.get(offset+LOSER));
+  }
+
+  /** @return the colour with an ordinal, or null for -1. **/
+  private static Colour colour(int ordinal){
+    return ordinal<0?null:Colour.values()[ordinal];
+  }
+
+  /** @return how the game ended, or null if a player made an illegal move. **/
+  public EndReason getEndReason(){
+    int reason = buffer.get(offset+END_REASON);
+    return reason<0?null:EndReason.values()[reason];
+  }
+
+  /**
+   * @param colour the colour of the player.
+   * @return the time the player had left at the end of the game, in milliseconds.
+   * **/
+  public int getTimeLeft(Colour colour){
+    return buffer.getInt(offset+TIME_LEFT+4*colour.ordinal());
+  }
+
+  /** @return the number of moves played. **/
+  public int getMoveCount(){
+    return buffer.getInt(offset+MOVE_COUNT);
+  }
+
+  /**
+   * @param index the index of the move, starting from 0.
+   * @return the move, packed as described in {@link Move}, or {@link Move#PASS} if the player passed.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public int getPackedMove(int index){
+    if(index<0 || index>=getMoveCount()) throw new ArrayIndexOutOfBoundsException("Index out of bounds.");
+    return buffer.getShort(moves+MOVE_SIZE*index);
+  }
+
+  /**
+   * @param index the index of the move, starting from 0.
+   * @return true if the player passed, as described in {@link Board#isPass(int)}.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public boolean isPass(int index){
+    return Move.isPass(getPackedMove(index));
+  }
+
+  /**
+   * @param index the index of the move, starting from 0.
+   * @return the number of milliseconds the player took to choose the move.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public int getMoveTime(int index){
+    if(index<0 || index>=getMoveCount()) throw new ArrayIndexOutOfBoundsException("Index out of bounds.");
+    return buffer.getInt(moves+MOVE_SIZE*index+2);
+  }
+
+  /**
+   * @param index the index of the move, starting from 0.
+   * @return the number of milliseconds of processor time the player used to choose the move.
+   * @throws ArrayIndexOutOfBoundsException if the index does not correspond to a move.
+   * **/
+  public int getMoveCpuTime(int index){
+    if(index<0 || index>=getMoveCount()) throw new ArrayIndexOutOfBoundsException("Index out of bounds.");
+    return buffer.getInt(moves+MOVE_SIZE*index+6);
+  }
+
+  /**
+   * Replays the game on a new board, checking each move with {@link Board#move(Position,Position,int)}.
+   * In timed games each move is charged the time recorded for it on the game's clock, as it was by the referee.
+   * If the referee ended the game, by a draw, adjudication or a player running out of time before they moved,
+   * the board is ended in the same way.
+   * @return the board at the end of the game.
+   * @throws ImpossiblePositionException if a recorded move is not legal.
+   * **/
+  public Board replay() throws ImpossiblePositionException{
+    Board board = replay(getMoveCount());
+    EndReason reason = getEndReason();
+    if(!board.gameOver() && reason!=null){
+      switch(reason){
+        case REPETITION: case MOVE_LIMIT: board.draw(reason); break;
+        case ADJUDICATION: board.adjudicate(); break;
+        case OUT_OF_TIME: board.forfeit(board.getTimeLeft(board.getTurn())-getTimeLeft(board.getTurn())); break;
+        default:
+      }
+    }
+    return board;
+  }
+
+  /**
+   * Replays the first moves of the game on a new board, checking each move with {@link Board#move(Position,Position,int)},
+   * and skipping the turn of a player who passed with {@link Board#pass()}.
+   * @param count the number of moves to replay, at most {@link #getMoveCount()}.
+   * @return the board after the moves.
+   * @throws ImpossiblePositionException if a recorded move is not legal.
+   * @throws ArrayIndexOutOfBoundsException if there are fewer moves in the game.
+   * **/
+  public Board replay(int count) throws ImpossiblePositionException{
+    boolean timed = getTimeLimit()>0, cpu = getClock()==Clock.CPU;
+    Board board = new Board(timed?getTimeLimit()*1000:1);
+    for(int i = 0; i<count; i++){
+      int move = getPackedMove(i);
+      Colour colour = board.getTurn();
+      if(isPass(i)) board.pass();
+      else board.move(Move.start(move), Move.end(move), timed?(cpu?getMoveCpuTime(i):getMoveTime(i)):0);
+      board.recordTimeUsed(colour, getMoveTime(i), getMoveCpuTime(i));
+    }
+    return board;
+  }
+
+  public String toString(){
+    return getAgent(Colour.BLUE)+", "+getAgent(Colour.GREEN)+", "+getAgent(Colour.RED)+": "
+      +getMoveCount()+" moves, winner "+getWinner()+", loser "+getLoser();
+  }
+}
@@ -0,0 +1,63 @@
+package threeChess;
+
+import java.io.Closeable;
+
+/**
+ * An output for the games played by the referee, such as a text log or a binary record.
+ * The referee starts a recording when a game begins, adds each move to it as it is played,
+ * and ends it with the result, so a recorder can write a game as it progresses or all at once when it ends.
+ * Several games may be recorded at the same time, each through its own recording,
+ * so implementations must be safe to use from several threads.
+ * Errors writing the output are thrown as {@link java.io.UncheckedIOException}.
+ * **/
+public interface GameRecorder extends Closeable{
+
+  /**
+   * Starts recording a game.
+   * @param blue the name of the agent playing the blue pieces.
+   * @param green the name of the agent playing the green pieces.
+   * @param red the name of the agent playing the red pieces.
+   * @param timeLimit the cumulative time each player has (in seconds), or a value less than or equal to zero for an untimed game.
+   * @param clock the clock the players are charged with in a timed game.
+   * @return the recording to add the moves and result of the game to.
+   * **/
+  Recording startGame(String blue, String green, String red, int timeLimit, Clock clock);
+
+  /**
+   * Flushes any recorded games and closes the output.
+   * @throws java.io.UncheckedIOException if the output cannot be written.
+   * **/
+  void close();
+
+  /**
+   * The record of one game in progress, which is only used by the thread playing the game.
+   * **/
+  interface Recording{
+
+    /**
+     * Records a legal move, after it has been played.
+     * @param colour the colour of the player who made the move.
+     * @param start the starting position of the move.
+     * @param end the end position of the move.
+     * @param time the number of milliseconds the player took to choose the move.
+     * @param cpuTime the number of milliseconds of processor time the player used to choose the move.
+     * **/
+    void move(Colour colour, Position start, Position end, int time, int cpuTime);
+
+    /**
+     * Records a pass, after the referee skipped the turn of a player who did not move within the move limit of an untimed game.
+     * @param colour the colour of the player who passed.
+     * @param time the number of milliseconds the player took before their move was abandoned.
+     * @param cpuTime the number of milliseconds of processor time the player used before their move was abandoned.
+     * **/
+    void pass(Colour colour, int time, int cpuTime);
+
+    /**
+     * Records the end of the game, after which the recording is not used again.
+     * @param board the final state of the board, which should not be modified.
+     * @param scores the scores for blue, green and red, in that order, 
+     * where -2 marks a player who attempted an illegal move.
+     * **/
+    void end(Board board, int[] scores);
+  }
+}
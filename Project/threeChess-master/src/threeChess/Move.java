@@ -0,0 +1,63 @@
+package threeChess;
+
+/**
+ * Static methods for working with moves packed into a single int.
+ * A packed move holds the ordinal of the start position in bits 7-13 
+ * and the ordinal of the end position in bits 0-6, 
+ * so lists of moves can be kept in primitive arrays without allocating.
+ * **/
+public final class Move{
+
+  /**
+   * The packed form of a pass, recorded in a board's history when the referee skips a player's turn.
+   * It is not the packed form of any move, as its positions are beyond the last position.
+   * **/
+  public static final int PASS = 0x3FFF;
+
+  private Move(){}
+
+  /**
+   * Packs a move into an int.
+   * @param start the starting position of the move
+   * @param end the end position of the move
+   * @return the packed move.
+   * **/
+  public static int pack(Position start, Position end){
+    return start.ordinal()<<7 | end.ordinal();
+  }
+
+  /**
+   * Packs a move, given by position ordinals, into an int.
+   * @param start the ordinal of the starting position of the move
+   * @param end the ordinal of the end position of the move
+   * @return the packed move.
+   * **/
+  public static int pack(int start, int end){
+    return start<<7 | end;
+  }
+
+  /** @return the starting position of a packed move, which must not be a {@link #PASS}. **/
+  public static Position start(int move){
+    return Position.get(move>>>7);
+  }
+
+  /** @return the end position of a packed move, which must not be a {@link #PASS}. **/
+  public static Position end(int move){
+    return Position.get(move&0x7F);
+  }
+
+  /** @return true if the packed move is a {@link #PASS}. **/
+  public static boolean isPass(int move){
+    return move==PASS;
+  }
+
+  /** @return a packed move as an array of its start and end position, the form used by {@link Agent#playMove}, or null for a {@link #PASS}. **/
+  public static Position[] toArray(int move){
+    return move==PASS ? null : new Position[]{start(move),end(move)};
+  }
+
+  /** @return a String representation of a packed move, such as BD2-BD4, or "pass" for a {@link #PASS}. **/
+  public static String toString(int move){
+    return move==PASS ? "pass" : start(move)+"-"+end(move);
+  }
+}
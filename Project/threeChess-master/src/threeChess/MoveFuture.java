@@ -4,40 +4,75 @@ import java.util.concurrent.*;
 
 /**
  * Represents a move that will be selected in the future.
+ * The move is either completed by whatever is choosing it, such as the display when the user clicks a square,
+ * or produced by a task run with {@link #produce(Callable)}.
+ * Cancelling the future with mayInterruptIfRunning set interrupts the thread producing the move, if there is one,
+ * so an agent that checks for interruption stops working on a move that is no longer wanted.
  */
-public class MoveFuture implements Future<Position[]> {
+public class MoveFuture extends CompletableFuture<Position[]> {
 
-  private final BlockingQueue<Position[]> move = new ArrayBlockingQueue<>(1);
+  private Thread producer;
+  private boolean interrupted;
 
-  protected void complete(Position[] move) throws InterruptedException {
-    this.move.put(move);
-  }
+  /** Creates a future to be completed with {@link #complete(Object)}. */
+  public MoveFuture() {}
 
-  @Override
-  public Position[] get() throws InterruptedException {
-    return move.take();
+  /**
+   * Produces a move on a new daemon thread, so the thread cannot stop the program from exiting.
+   * @param move the task choosing the move.
+   * @param name the name of the thread.
+   * @return a future completed with the move, or with the exception thrown by the task.
+   */
+  public static MoveFuture supply(Callable<Position[]> move, String name) {
+    MoveFuture future = new MoveFuture();
+    Thread thread = new Thread(() -> future.produce(move), name);
+    thread.setDaemon(true);
+    thread.start();
+    return future;
   }
 
-  @Override
-  public Position[] get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
-    Position[] moveOrNull = move.poll(timeout, unit);
-    if (moveOrNull == null)
-      throw new TimeoutException();
-    return moveOrNull;
+  /**
+   * Runs a task on the current thread, completing the future with the move it returns or the exception it throws.
+   * Nothing is run if the future is already done, for example if it was cancelled while the task was queued.
+   * If the future is cancelled while the task runs, the thread is interrupted,
+   * and the interrupt is cleared before this returns, so a pooled thread can go on to other work.
+   * @param move the task choosing the move.
+   */
+  public void produce(Callable<Position[]> move) {
+    synchronized (this) {
+      if (isDone())
+        return;
+      producer = Thread.currentThread();
+    }
+    try {
+      complete(move.call());
+    } catch (Throwable e) {
+      completeExceptionally(e);
+    } finally {
+      synchronized (this) {
+        producer = null;
+        if (interrupted)
+          Thread.interrupted();
+      }
+    }
   }
 
+  /**
+   * Cancels the move, if it has not already been completed.
+   * @param mayInterruptIfRunning whether to interrupt the thread producing the move.
+   * @return true if the future was cancelled by this call.
+   */
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
-    throw new UnsupportedOperationException();
-  }
-
-  @Override
-  public boolean isCancelled() {
-    throw new UnsupportedOperationException();
-  }
-
-  @Override
-  public boolean isDone() {
-    throw new UnsupportedOperationException();
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled && mayInterruptIfRunning) {
+      synchronized (this) {
+        if (producer != null) {
+          producer.interrupt();
+          interrupted = true;
+        }
+      }
+    }
+    return cancelled;
   }
 }
@@ -0,0 +1,99 @@
+package threeChess;
+
+/**
+ * Precomputed move geometry for every piece type, colour and position.
+ * The tables are built once, the first time they are used, by walking the 
+ * steps of each piece type from each position (see {@link Board#step}), 
+ * so they follow the same rules for crossing between sections of the board.
+ * Positions are given by their ordinals, and a step that goes off the board 
+ * simply has no positions, so no exceptions are thrown.
+ * The returned arrays are shared and must not be modified.
+ * **/
+public final class MoveTables{
+
+  /** Holder for the tables, so they are built on first use (indexed by type, colour, position and step) **/
+  private static class Tables{
+    private static final int[][][][][] STEPS = new int[PieceType.values().length][3][96][][];
+    private static final int[][][][] TARGETS = new int[PieceType.values().length][3][96][];
+    static{
+      for(PieceType type: PieceType.values()){
+        for(Colour colour: Colour.values()){
+          //only pawns depend on the colour of the piece, so the other tables are shared between colours
+          if(type!=PieceType.PAWN && colour!=Colour.BLUE){
+            STEPS[type.ordinal()][colour.ordinal()] = STEPS[type.ordinal()][0];
+            TARGETS[type.ordinal()][colour.ordinal()] = TARGETS[type.ordinal()][0];
+            continue;
+          }
+          for(int square = 0; square<96; square++){
+            int[][] steps = build(type, colour, Position.get(square));
+            STEPS[type.ordinal()][colour.ordinal()][square] = steps;
+            TARGETS[type.ordinal()][colour.ordinal()][square] = distinct(steps);
+          }
+        }
+      }
+    }
+  }
+
+  private MoveTables(){}
+
+  /**
+   * Walks each step of the piece type from the start position, 
+   * iterating the step for Rooks, Bishops and Queens until it leaves the board.
+   * **/
+  private static int[][] build(PieceType type, Colour colour, Position start){
+    Direction[][] steps = type.getSteps();
+    int[][] rays = new int[steps.length][];
+    int[] ray = new int[16];
+    for(int i = 0; i<steps.length; i++){
+      int length = 0;
+      try{
+        Position tmp = Board.walk(type, colour, steps[i], start, false);
+        while(tmp!=start && length<ray.length){//a ray can never pass back through its own start
+          ray[length++] = tmp.ordinal();
+          if(type.getStepReps()==1) break;
+          tmp = Board.walk(type, colour, steps[i], tmp, tmp.getColour()!=start.getColour());
+        }
+      }catch(ImpossiblePositionException e){}//the ray ends at the edge of the board.
+      rays[i] = java.util.Arrays.copyOf(ray, length);
+    }
+    return rays;
+  }
+
+  /** @return the distinct positions appearing in the rays, in order of first appearance. **/
+  private static int[] distinct(int[][] rays){
+    boolean[] seen = new boolean[96];
+    int[] squares = new int[96];
+    int count = 0;
+    for(int[] ray: rays)
+      for(int square: ray)
+        if(!seen[square]){seen[square] = true; squares[count++] = square;}
+    return java.util.Arrays.copyOf(squares, count);
+  }
+
+  /**
+   * Gets the positions reached by each step of a piece, ignoring all other pieces on the board.
+   * The outer array is indexed in the same order as {@link PieceType#getSteps()}.
+   * For Rooks, Bishops and Queens each inner array is the ordered ray of positions reached by 
+   * iterating the step, and for all other pieces it contains the single position reached by the step.
+   * The inner array is empty if the step leaves the board.
+   * @param type the type of the moving piece
+   * @param colour the colour of the moving piece (this only matters for pawns)
+   * @param start the starting position of the piece
+   * @return an array of the ordinals of the positions reached by each step.
+   * **/
+  public static int[][] steps(PieceType type, Colour colour, Position start){
+    return Tables.STEPS[type.ordinal()][colour.ordinal()][start.ordinal()];
+  }
+
+  /**
+   * Gets every distinct position a piece could reach from a starting position on an empty board.
+   * This ignores the special rules for pawns and castling.
+   * @param type the type of the moving piece
+   * @param colour the colour of the moving piece (this only matters for pawns)
+   * @param start the starting position of the piece
+   * @return an array of the ordinals of the reachable positions.
+   * **/
+  public static int[] targets(PieceType type, Colour colour, Position start){
+    return Tables.TARGETS[type.ordinal()][colour.ordinal()][start.ordinal()];
+  }
+}
@@ -0,0 +1,175 @@
+package threeChess;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Performance test (perft) for the move generator.
+ * Perft counts the leaf nodes of the game tree to a fixed depth,
+ * which checks that the move generation and move making code agree with the rules
+ * (the counts should not change when the code is optimised), and measures how fast they are.
+ * Games that end before the depth is reached have no moves, so contribute no leaves.
+ * Run with "java -cp bin threeChess.Perft depth [divide|parallel|verify]".
+ * **/
+public class Perft{
+
+  /**
+   * Reference leaf counts from the initial position, indexed by depth.
+   * These were produced by testing every pair of positions with the original
+   * isLegalMove and move implementations, before move generation was added.
+   * **/
+  private static final long[] REFERENCE = {1L, 20L, 400L, 8000L, 178080L, 3961256L};
+
+  private Perft(){}
+
+  /**
+   * Counts the leaf nodes to the given depth, on a single thread.
+   * The board is explored with makeMove and unmakeMove, so it is returned to its original state.
+   * @param board the position to start from, which may be a CheatBoard.
+   * @param depth the number of moves to search.
+   * @return the number of leaf nodes.
+   * **/
+  public static long perft(Board board, int depth){
+    return perft(board, depth, new int[Math.max(depth,1)][Board.MAX_MOVES]);
+  }
+
+  /** Counts leaf nodes using one move buffer per remaining ply. **/
+  private static long perft(Board board, int depth, int[][] buffers){
+    if(depth==0) return 1;
+    if(board.gameOver()) return 0;
+    int[] moves = buffers[depth-1];
+    int count = board.generateMoves(moves);
+    if(depth==1) return count;
+    long nodes = 0;
+    for(int i = 0; i<count; i++){
+      make(board, moves[i]);
+      nodes += perft(board, depth-1, buffers);
+      board.unmakeMove();
+    }
+    return nodes;
+  }
+
+  /**
+   * Counts the leaf nodes below each move from the position,
+   * so a difference from a reference count can be traced to a move.
+   * @param board the position to start from, which may be a CheatBoard.
+   * @param depth the number of moves to search, including the root move.
+   * @return a map from each packed root move, in generation order, to the number of leaf nodes below it.
+   * **/
+  public static Map<Integer,Long> divide(Board board, int depth){
+    Map<Integer,Long> counts = new LinkedHashMap<Integer,Long>();
+    if(depth<1 || board.gameOver()) return counts;
+    int[] moves = new int[Board.MAX_MOVES];
+    int count = board.generateMoves(moves);
+    for(int i = 0; i<count; i++){
+      make(board, moves[i]);
+      counts.put(moves[i], perft(board, depth-1));
+      board.unmakeMove();
+    }
+    return counts;
+  }
+
+  /**
+   * Counts the leaf nodes to the given depth using a fork join pool.
+   * The tree is split into a task for each move in the first levels,
+   * each working on its own clone of the board, and the rest is searched single threaded.
+   * @param board the position to start from, which is not modified.
+   * @param depth the number of moves to search.
+   * @param pool the pool to run the tasks in.
+   * @return the number of leaf nodes.
+   * **/
+  public static long parallelPerft(Board board, int depth, ForkJoinPool pool){
+    return pool.invoke(new PerftTask(copy(board), depth, Math.min(2, depth-1)));
+  }
+
+  /** A task counting the leaves below a position, which forks a subtask per move while split is positive. **/
+  private static class PerftTask extends RecursiveTask<Long>{
+    private static final long serialVersionUID = 1L;
+    private final Board board;
+    private final int depth;
+    private final int split;
+
+    PerftTask(Board board, int depth, int split){
+      this.board = board; this.depth = depth; this.split = split;
+    }
+
+    protected Long compute(){
+      if(split<=0 || depth<=1 || board.gameOver()) return perft(board, depth);
+      int[] moves = new int[Board.MAX_MOVES];
+      int count = board.generateMoves(moves);
+      List<PerftTask> tasks = new ArrayList<PerftTask>(count);
+      for(int i = 0; i<count; i++){
+        Board child = copy(board);
+        make(child, moves[i]);
+        tasks.add(new PerftTask(child, depth-1, split-1));
+      }
+      long nodes = 0;
+      for(PerftTask task: invokeAll(tasks)) nodes += task.join();
+      return nodes;
+    }
+  }
+
+  /** Makes a generated move, which must be legal. **/
+  private static void make(Board board, int move){
+    try{
+      board.makeMove(Move.start(move), Move.end(move));
+    }catch(ImpossiblePositionException e){
+      throw new IllegalStateException("Generated an illegal move "+Move.toString(move), e);
+    }
+  }
+
+  /** @return an independent copy of the board. **/
+  private static Board copy(Board board){
+    try{
+      return (Board) board.clone();
+    }catch(CloneNotSupportedException e){
+      throw new RuntimeException("Board must be cloneable", e);
+    }
+  }
+
+  /**
+   * Compares perft counts from the initial position with the reference table.
+   * @param maxDepth the deepest count to check, limited to the size of the table.
+   * @return true if every count matches.
+   * **/
+  public static boolean verify(int maxDepth){
+    boolean pass = true;
+    for(int depth = 1; depth<=maxDepth && depth<REFERENCE.length; depth++){
+      long nodes = perft(new Board(0), depth);
+      boolean ok = nodes==REFERENCE[depth];
+      System.out.println("depth "+depth+": "+nodes+(ok?" ok":" FAILED, expected "+REFERENCE[depth]));
+      pass &= ok;
+    }
+    return pass;
+  }
+
+  /**
+   * Runs perft from the initial position.
+   * The first argument is the depth (default 4), and the optional second argument is
+   * "divide" for counts per root move, "parallel" to use every available processor,
+   * or "verify" to check counts up to the depth against the reference table (exiting with status 1 on failure).
+   **/
+  public static void main(String[] args){
+    int depth = args.length>0 ? Integer.parseInt(args[0]) : 4;
+    String mode = args.length>1 ? args[1] : "";
+    if(mode.equals("verify")){
+      if(!verify(depth)) System.exit(1);
+      return;
+    }
+    Board board = new Board(0);
+    long start = System.nanoTime();
+    long nodes;
+    if(mode.equals("divide")){
+      nodes = 0;
+      for(Map.Entry<Integer,Long> entry: divide(board, depth).entrySet()){
+        System.out.println(Move.toString(entry.getKey())+": "+entry.getValue());
+        nodes += entry.getValue();
+      }
+    }
+    else if(mode.equals("parallel")) nodes = parallelPerft(board, depth, ForkJoinPool.commonPool());
+    else nodes = perft(board, depth);
+    double seconds = (System.nanoTime()-start)/1e9;
+    System.out.println("perft("+depth+") = "+nodes+" in "+String.format("%.3f", seconds)+"s, "
+        +String.format("%.0f", nodes/seconds)+" nodes/s");
+  }
+}
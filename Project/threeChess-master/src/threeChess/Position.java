@@ -33,6 +33,9 @@ public enum Position{
   RG1(Colour.RED,0,6), RG2(Colour.RED,1,6), RG3(Colour.RED,2,6), RG4(Colour.RED,3,6),
   RH1(Colour.RED,0,7), RH2(Colour.RED,1,7), RH3(Colour.RED,2,7), RH4(Colour.RED,3,7);
 
+  /**A cached copy of the positions, indexed by ordinal, to avoid cloning values() on every lookup**/
+  private static final Position[] VALUES = values();
+
   /**The position's colour**/
   private final Colour colour; //red blue green
   /**The position's row**/
@@ -66,14 +69,24 @@ public enum Position{
     int index= row+4*column;
     if(index>=0 && index<32){
       switch(colour){
-        case BLUE: return Position.values()[index];
-        case GREEN: return Position.values()[index+32];
-        case RED: return Position.values()[index+64];           
+        case BLUE: return VALUES[index];
+        case GREEN: return VALUES[index+32];
+        case RED: return VALUES[index+64];           
       }
     }
     throw new ImpossiblePositionException("No such position."); 
   }
 
+  /**
+   * Gets the position with the specified ordinal.
+   * @param ordinal the ordinal (0-95) of the position.
+   * @return the position with that ordinal.
+   * @throws ArrayIndexOutOfBoundsException if the ordinal is not between 0 and 95.
+   * **/
+  public static Position get(int ordinal){
+    return VALUES[ordinal];
+  }
+
   /**
    * Gets the neighbouring cell in the given direction. 
    * Cells always move forward towards the center line,
@@ -0,0 +1,272 @@
+package threeChess;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongFunction;
+
+/**
+ * A tournament that stops playing agents against each other once their ordering is statistically decided.
+ * Games are played in rounds, in which each group of three agents plays once with every assignment of colours.
+ * Each game is counted as three results between pairs of agents: a win for the agent with the higher score, or a draw if the scores are equal.
+ * After each round a sequential probability ratio test is applied to every pair of agents,
+ * testing whether the first is weaker by the Elo margin against whether it is stronger by the margin.
+ * A pair is decided when the test first accepts either hypothesis, after which its verdict is fixed and its test takes no further results,
+ * and the next round only includes the groups containing an undecided pair, so most games are spent on agents of similar strength.
+ * Each pair's test takes one result from each game of its group, so the results it sees are independent,
+ * but the three results from one game are not independent of each other, 
+ * so the error rate holds for each pair on its own rather than for the ordering of all the agents at once.
+ * As the test is only applied at the end of each round, it may also stop a little later than a test applied after every game.
+ * Agents are rated by a Bradley-Terry model fitted to the results between pairs, and reported on the Elo scale,
+ * which takes every result, including those of decided pairs whose groups are still playing.
+ * As in {@link ThreeChess#tournament(Agent[],int,int,int,long,Clock,Adjudication,PrintStream,GameRecorder)},
+ * each game is played by new instances of the agents, created by a factory for each entrant,
+ * and games may be played at the same time on a pool of threads.
+ * **/
+public final class SequentialTournament{
+
+  /** Every assignment of the three agents of a group to colours **/
+  private final static int[][] perms = {{0,1,2},{0,2,1},{1,0,2},{1,2,0},{2,0,1},{2,1,0}};
+  /** The number of iterations used to fit the ratings **/
+  private final static int fitIterations = 200;
+
+  /** A test with a margin of 50 Elo and error rates of 5%, checked after 12 games between a pair, with at most 300 games for each group **/
+  public final static SequentialTournament STANDARD = new SequentialTournament(50, 0.05, 12, 300);
+
+  private final double eloMargin;
+  private final double errorRate;
+  private final int minGames;
+  private final int maxGames;
+
+  /**
+   * Creates a sequential tournament.
+   * @param eloMargin the difference in rating, on the Elo scale, below which either ordering of a pair is acceptable.
+   * @param errorRate the probability of ordering a pair wrongly when their ratings differ by at least the margin.
+   * @param minGames the number of results between a pair before the test is applied, so early streaks do not decide it.
+   * @param maxGames the most games played by each group of three agents, after which their pairs are left undecided.
+   * @throws IllegalArgumentException if the margin or game counts are not positive, or the error rate is not between 0 and 0.5.
+   * **/
+  public SequentialTournament(double eloMargin, double errorRate, int minGames, int maxGames){
+    if(!(eloMargin>0)) throw new IllegalArgumentException("Elo margin must be positive");
+    if(!(errorRate>0 && errorRate<0.5)) throw new IllegalArgumentException("Error rate must be between 0 and 0.5");
+    if(minGames<1 || maxGames<1) throw new IllegalArgumentException("Game counts must be positive");
+    this.eloMargin = eloMargin;
+    this.errorRate = errorRate;
+    this.minGames = minGames;
+    this.maxGames = maxGames;
+  }
+
+  /** The results between two agents, from the point of view of the first. **/
+  private static class Pair{
+    /** Every result, for the ratings **/
+    private int games;
+    private double score;
+    /** The results taken by the test, which stops taking them once the pair is decided **/
+    private int testGames;
+    private double testScore;
+    private double squares;
+    /** 1 if the first agent was found stronger, -1 if it was found weaker, and 0 while the test is undecided **/
+    private int decided;
+
+    private void update(double result){
+      games++;
+      score += result;
+      if(decided!=0) return;
+      testGames++;
+      testScore += result;
+      squares += result*result;
+    }
+  }
+
+  /**
+   * Runs the tournament, printing the result of each round, the statistics of each agent, the ratings and the ordering of each pair.
+   * Each agent is created by its class's zero parameter constructor, as described in {@link ThreeChess#factory(Agent)}.
+   * @param bots an array of at least three Agents to compete in the contest, which are used as templates for the agents in each game.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param threads the number of games to play at the same time.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which must be safe to use from several threads, and is not closed when the tournament ends.
+   * @return the rating of each agent on the Elo scale, in the order of bots, with a mean of zero.
+   * If the thread is interrupted, the tournament stops and the ratings from the completed rounds are returned.
+   * @throws IllegalArgumentException if there are fewer than three agents, or an agent requires manual input,
+   * or does not have a public zero parameter constructor.
+   * @throws RuntimeException if a game fails, with the exception thrown by the game as its cause.
+   * **/
+  public double[] run(Agent[] bots, int timeLimit, int threads, Clock clock, Adjudication adjudication, PrintStream logger, GameRecorder recorder){
+    return run(bots, ThreeChess.factories(bots), timeLimit, threads, 0L, clock, adjudication, logger, recorder);
+  }
+
+  /**
+   * Runs the tournament with each agent in each game created by a factory for its entrant,
+   * printing the result of each round, the statistics of each agent, the ratings and the ordering of each pair.
+   * Each factory is given a seed drawn for the game from the tournament seed, as in 
+   * {@link ThreeChess#tournament(List,int,int,int,long,Clock,Adjudication,PrintStream,GameRecorder)},
+   * and the results of each entrant are reported under the name of an agent created with the tournament seed.
+   * @param entrants a factory for each of at least three agents competing in the contest, which must return a new agent each time it is called.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param threads the number of games to play at the same time.
+   * @param seed the seed for the seeds given to the factories.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which must be safe to use from several threads, and is not closed when the tournament ends.
+   * @return the rating of each entrant on the Elo scale, in the order of entrants, with a mean of zero.
+   * If the thread is interrupted, the tournament stops and the ratings from the completed rounds are returned.
+   * @throws IllegalArgumentException if there are fewer than three entrants, or an agent requires manual input.
+   * @throws RuntimeException if a game fails, with the exception thrown by the game as its cause.
+   * **/
+  public double[] run(List<LongFunction<Agent>> entrants, int timeLimit, int threads, long seed, Clock clock, Adjudication adjudication, 
+      PrintStream logger, GameRecorder recorder){
+    return run(ThreeChess.names(entrants, seed), entrants, timeLimit, threads, seed, clock, adjudication, logger, recorder);
+  }
+
+  /** Runs the tournament, crediting the results of each factory's agents to the agent at the same index of bots. **/
+  private double[] run(Agent[] bots, List<LongFunction<Agent>> entrants, int timeLimit, int threads, long seed, Clock clock, 
+      Adjudication adjudication, PrintStream logger, GameRecorder recorder){
+    if(bots.length<3) throw new IllegalArgumentException("A tournament needs at least three agents");
+    HashMap<Agent, ThreeChess.Statistics> scoreboard = new HashMap<Agent, ThreeChess.Statistics>();
+    for(Agent a: bots){
+      if(!a.isAutonomous()) throw new IllegalArgumentException(a+" requires manual input, so cannot play in parallel");
+      scoreboard.put(a, new ThreeChess.Statistics(a));
+    }
+    int n = bots.length;
+    Pair[][] pairs = new Pair[n][n];
+    for(int i = 0; i<n; i++)
+      for(int j = 0; j<n; j++) pairs[i][j] = new Pair();
+    List<int[]> groups = new ArrayList<int[]>();
+    for(int i = 0; i<n; i++)
+      for(int j = i+1; j<n; j++)
+        for(int k = j+1; k<n; k++) groups.add(new int[] {i,j,k});
+    int[] played = new int[groups.size()];
+    int game = 0;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try{
+      for(int round = 1; ; round++){
+        List<int[]> players = new ArrayList<int[]>();
+        List<Future<int[]>> games = new ArrayList<Future<int[]>>();
+        for(int g = 0; g<groups.size(); g++){
+          int[] group = groups.get(g);
+          if(played[g]>=maxGames || !undecided(pairs, group)) continue;
+          for(int[] ord: perms){
+            int[] order = {group[ord[0]], group[ord[1]], group[ord[2]]};
+            Random gameRandom = ThreeChess.gameRandom(seed, game++);
+            long[] seeds = {gameRandom.nextLong(), gameRandom.nextLong(), gameRandom.nextLong()};
+            players.add(order);
+            games.add(pool.submit(() -> ThreeChess.play(entrants.get(order[0]).apply(seeds[0]), entrants.get(order[1]).apply(seeds[1]),
+                    entrants.get(order[2]).apply(seeds[2]), timeLimit, 0, clock, adjudication, recorder, false)));
+          }
+          played[g] += perms.length;
+        }
+        if(games.isEmpty()) break;
+        for(int g = 0; g<games.size(); g++){
+          int[] order = players.get(g);
+          int[] res = games.get(g).get();
+          for(int o = 0; o<3; o++){
+            scoreboard.get(bots[order[o]]).update(res[o]);
+            for(int p = 0; p<3; p++)
+              if(o!=p) pairs[order[o]][order[p]].update(res[o]>res[p]?1:res[o]==res[p]?0.5:0);
+          }
+        }
+        int open = 0;
+        for(int i = 0; i<n; i++){
+          for(int j = i+1; j<n; j++){
+            if(pairs[i][j].decided==0){
+              pairs[i][j].decided = decision(pairs[i][j]);
+              pairs[j][i].decided = -pairs[i][j].decided;
+            }
+            if(pairs[i][j].decided==0) open++;
+          }
+        }
+        logger.println("Round "+round+": "+games.size()+" games, "+open+" pairs undecided");
+      }
+    }
+    catch(ExecutionException e){
+      throw new RuntimeException("Tournament game failed", e.getCause());
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    finally{
+      pool.shutdownNow();
+    }
+    double[] ratings = ratings(pairs);
+    ThreeChess.printResults(bots, scoreboard, logger);
+    printRatings(bots, pairs, ratings, logger);
+    return ratings;
+  }
+
+  /** @return true if the ordering of any pair of agents in a group is undecided. **/
+  private boolean undecided(Pair[][] pairs, int[] group){
+    return pairs[group[0]][group[1]].decided==0 || pairs[group[0]][group[2]].decided==0 || pairs[group[1]][group[2]].decided==0;
+  }
+
+  /**
+   * Applies the sequential probability ratio test to the results the pair's test has taken,
+   * using the normal approximation to the distribution of the mean result.
+   * @return 1 if the first agent is stronger, -1 if it is weaker, and 0 if the test has not decided.
+   * **/
+  private int decision(Pair pair){
+    if(pair.testGames<minGames) return 0;
+    double mean = pair.testScore/pair.testGames;
+    double variance = Math.max(pair.squares/pair.testGames-mean*mean, 1e-9);
+    double s0 = expected(-eloMargin), s1 = expected(eloMargin);
+    double llr = pair.testGames*(s1-s0)*(2*mean-s0-s1)/(2*variance);
+    double bound = Math.log((1-errorRate)/errorRate);
+    return llr>=bound?1:llr<=-bound?-1:0;
+  }
+
+  /** @return the expected result of a player rated elo above its opponent. **/
+  private static double expected(double elo){
+    return 1/(1+Math.pow(10, -elo/400));
+  }
+
+  /**
+   * Fits a Bradley-Terry model to the results between pairs by minorization-maximization, counting a draw as half a win for each agent.
+   * Every pair is given one extra drawn game, so an agent that has won or lost every game still has a finite rating.
+   * @return the rating of each agent on the Elo scale, with a mean of zero.
+   * **/
+  private static double[] ratings(Pair[][] pairs){
+    int n = pairs.length;
+    double[] strength = new double[n];
+    Arrays.fill(strength, 1);
+    for(int iteration = 0; iteration<fitIterations; iteration++){
+      double logSum = 0;
+      for(int i = 0; i<n; i++){
+        double wins = 0, weight = 0;
+        for(int j = 0; j<n; j++){
+          if(i==j) continue;
+          wins += pairs[i][j].score+0.5;
+          weight += (pairs[i][j].games+1)/(strength[i]+strength[j]);
+        }
+        strength[i] = wins/weight;
+        logSum += Math.log(strength[i]);
+      }
+      double mean = Math.exp(logSum/n);
+      for(int i = 0; i<n; i++) strength[i] /= mean;
+    }
+    double[] ratings = new double[n];
+    for(int i = 0; i<n; i++) ratings[i] = 400*Math.log10(strength[i]);
+    return ratings;
+  }
+
+  /** Prints the agents ranked by rating, and the ordering of each pair. **/
+  private void printRatings(Agent[] bots, Pair[][] pairs, double[] ratings, PrintStream logger){
+    Integer[] ranked = new Integer[bots.length];
+    for(int i = 0; i<ranked.length; i++) ranked[i] = i;
+    Arrays.sort(ranked, (a,b) -> Double.compare(ratings[b], ratings[a]));
+    logger.println("Rank\tAgent\t\tElo\n");
+    int rank = 1;
+    for(int i: ranked) logger.println(rank++ +"\t"+bots[i]+"\t\t"+String.format("%.0f", ratings[i])+"\n");
+    for(int i = 0; i<bots.length; i++){
+      for(int j = i+1; j<bots.length; j++){
+        Pair pair = pairs[i][j];
+        String order = pair.decided>0?" > ":pair.decided<0?" < ":" ? ";
+        logger.println(bots[i]+order+bots[j]+(pair.decided!=0?" decided":" undecided")+" after "+pair.testGames+" games, score "
+          +String.format("%.1f", pair.testScore)+" (all games "+pair.games+", score "+String.format("%.1f", pair.score)+")");
+      }
+    }
+    logger.flush();
+  }
+}
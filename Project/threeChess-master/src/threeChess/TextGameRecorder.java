@@ -0,0 +1,70 @@
+package threeChess;
+
+import java.io.*;
+
+/**
+ * Records games in the original text format of the referee log:
+ * a header naming the agents, a line for each move with its real and processor time such as "BLUE: BD2-BD4 t:12 cpu:11"
+ * (or "BLUE: pass t:1000 cpu:998" for a skipped turn),
+ * how the game ended, and the score, time left and real and processor time used for each player.
+ * Each line is written as soon as it is known, so the log can be followed as games are played,
+ * but the lines of games recorded at the same time will be interleaved.
+ * **/
+public class TextGameRecorder implements GameRecorder{
+
+  private final PrintStream out;
+
+  /**
+   * Creates a recorder writing to a print stream, such as System.out.
+   * The stream is flushed after each game, and closed when the recorder is closed unless it is System.out.
+   * @param out the stream to write to.
+   * **/
+  public TextGameRecorder(PrintStream out){
+    this.out = out;
+  }
+
+  /**
+   * Creates a recorder writing to a file through a buffer.
+   * @param file the file to write to, which is replaced if it exists.
+   * @throws IOException if the file cannot be opened for writing.
+   * **/
+  public TextGameRecorder(File file) throws IOException{
+    this(new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false, "UTF-8"));
+  }
+
+  public Recording startGame(String blue, String green, String red, int timeLimit, Clock clock){
+    print("======NEW GAME======\nBLUE: "+blue+"\nGREEN: "+green+"\nRED: "+red);
+    return new Recording(){
+      public void move(Colour colour, Position start, Position end, int time, int cpuTime){
+        print(colour+": "+start+'-'+end+" t:"+time+" cpu:"+cpuTime);
+      }
+
+      public void pass(Colour colour, int time, int cpuTime){
+        print(colour+": pass t:"+time+" cpu:"+cpuTime);
+      }
+
+      public void end(Board board, int[] scores){
+        StringBuilder lines = new StringBuilder("=====Game Over=====");
+        if(board.getEndReason()!=null) lines.append("\nEND: ").append(board.getEndReason());//no reason after an illegal move
+        for(Colour c: Colour.values())
+          lines.append('\n').append(c).append(" score:").append(scores[c.ordinal()])
+            .append(" time:").append(board.getTimeLeft(c)).append(" points:").append(scores[c.ordinal()])
+            .append(" used:").append(board.getWallTimeUsed(c)).append(" cpu:").append(board.getCpuTimeUsed(c));
+        print(lines.toString());
+        if(out.checkError()) throw new UncheckedIOException(new IOException("Error writing game log"));//also flushes the stream
+      }
+    };
+  }
+
+  /** Prints lines to the stream, without interleaving them with the lines of other games. **/
+  private void print(String lines){
+    synchronized(out){
+      out.println(lines);
+    }
+  }
+
+  public void close(){
+    if(out==System.out) out.flush();
+    else out.close();
+  }
+}
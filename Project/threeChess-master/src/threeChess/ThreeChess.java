@@ -1,7 +1,12 @@
 package threeChess;
 
 import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 import threeChess.agents.*;
 
@@ -12,13 +17,21 @@ import threeChess.agents.*;
 public class ThreeChess{
 
   private final static int pause = 1000;//The pause in milliseconds between updating the graphical board
+  private final static int grace = 1000;//The time in milliseconds an agent may overrun its remaining time before its move is abandoned
+  private final static int ponderStop = 1000;//The time in milliseconds the referee waits for an agent to stop pondering
+  private final static int abandonWait = 1000;//The time in milliseconds the threads of an abandoned move have to end after being interrupted, before they count as leaked
+  private final static int cpuWallFactor = 4;//With the CPU clock, the multiple of an agent's deadline it may take in real time before its move is abandoned
+  private final static int cpuPoll = 10;//The interval in milliseconds between measurements of the processor time of an agent's move threads
+  private final static ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
   private final static int[][] perms = {{0,1,2},{0,2,1},{1,0,2},{1,2,0},{2,0,1},{2,1,0}};//to randomise play order
   private final static Random random = new Random();
+  private final static Map<Agent,AgentThreads> leaked = Collections.synchronizedMap(new WeakHashMap<Agent,AgentThreads>());//agents whose abandoned threads did not end
   
   /**
-   * A private class for representing the statistics of an agent in a tournament.
+   * A class for representing the statistics of an agent in a tournament.
+   * Updates are synchronized, so games played on different threads can share the statistics.
    * **/
-  private static class Statistics implements Comparable{
+  static class Statistics implements Comparable{
     private int won;
     private int lost;
     private int pass;
@@ -34,7 +47,7 @@ public class ThreeChess{
      * Updates the Statistics objects with the score from a game.
      * @param score -2 if an illegal move is attempt, -1 for a loss, 0 for a draw and +1 for a win.
      * **/
-    public void update(int score){
+    public synchronized void update(int score){
       switch(score){
         case -2: lost+=2; break;
         case -1: lost++;break;
@@ -80,12 +93,28 @@ public class ThreeChess{
    * @param logFile a FileName to print the game logs to. If this can't be found, or is null, System.out will be used instead.
    * **/
   public static void  tournament(Agent[] bots, int timeLimit, int numGames, Boolean displayOn, String logFile){
-    HashMap<Agent, Statistics> scoreboard = new HashMap<Agent,Statistics>();
     PrintStream logger = System.out;
     try{
-      if(logFile!=null) logger = new PrintStream(new File(logFile));
+      if(logFile!=null) logger = new PrintStream(new BufferedOutputStream(new FileOutputStream(logFile)));
     }
     catch(IOException e){System.out.println(logFile+"not found: "+e.getMessage()+"\nUsing System.out instead.");}
+    GameRecorder recorder = new TextGameRecorder(logger);
+    tournament(bots, timeLimit, numGames, displayOn, logger, recorder);
+    recorder.close();
+  }
+
+  /**
+   * Runs a tournament for a group of agents, recording the games with a game recorder.
+   * Every agent will play every other pair of agents numGames times, with the colours of the pieces randomly assigned.
+   * @param bots an array of Agents to compete in the contest.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param numGames the number of games played by each group of three agents.
+   * @param displayOn a boolean flag for whether the game should be graphically displayed
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which is not closed when the tournament ends.
+   * **/
+  public static void tournament(Agent[] bots, int timeLimit, int numGames, Boolean displayOn, PrintStream logger, GameRecorder recorder){
+    HashMap<Agent, Statistics> scoreboard = new HashMap<Agent,Statistics>();
     for(Agent a: bots) scoreboard.put(a, new Statistics(a));
     //if(numGames==0){//all combinations of three agents play each other. In each game the order is random.
       for(int i = 0; i<bots.length; i++){
@@ -94,7 +123,7 @@ public class ThreeChess{
             for(int g = 0; g<numGames; g++){
             int[] players = {i,j,k};
             int[] ord = perms[random.nextInt(perms.length)];
-            int[] res = play(bots[players[ord[0]]],bots[players[ord[1]]],bots[players[ord[2]]], timeLimit, logger, displayOn);
+            int[] res = play(bots[players[ord[0]]],bots[players[ord[1]]],bots[players[ord[2]]], timeLimit, recorder, displayOn);
             for(int o = 0; o<3;o++)scoreboard.get(bots[players[ord[o]]]).update(res[o]);
           }
         }
@@ -108,6 +137,178 @@ public class ThreeChess{
         for(int o = 0; o<3;o++)scoreboard.get(bots[players[o]]).update(res[o]);
       }
     } */
+    printResults(bots, scoreboard, logger);
+  }
+
+  /**
+   * Runs a tournament for a group of agents, playing games at the same time on a pool of threads.
+   * Every group of three agents plays numGames games, as in the sequential tournament, 
+   * but each game is played by new instances of the agents, created with their zero parameter constructors, 
+   * so that games on different threads do not share the state of an agent.
+   * Agents configured by their constructor lose their settings this way, 
+   * so they should be entered with a factory, using {@link #tournament(List,int,int,int,long,Clock,Adjudication,PrintStream,GameRecorder)}.
+   * The colours in each game are assigned by a random number generator seeded from the tournament seed and the game number, 
+   * so tournaments with the same seed assign the same colours, whatever the number of threads.
+   * Games are not displayed, and the lines of text logs of different games are interleaved,
+   * so a {@link BinaryGameRecorder} is better suited to recording the games.
+   * In timed games the agents share the processors, so there should be no more threads than processors.
+   * @param bots an array of Agents to compete in the contest, which are used as templates for the agents in each game.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param numGames the number of games played by each group of three agents.
+   * @param threads the number of games to play at the same time.
+   * @param seed the seed for the assignment of colours.
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which must be safe to use from several threads, and is not closed when the tournament ends.
+   * @throws IllegalArgumentException if an agent requires manual input, or does not have a public zero parameter constructor.
+   * @throws RuntimeException if a game fails, with the exception thrown by the game as its cause.
+   * **/
+  public static void tournament(Agent[] bots, int timeLimit, int numGames, int threads, long seed, PrintStream logger, GameRecorder recorder){
+    tournament(bots, timeLimit, numGames, threads, seed, Clock.WALL, Adjudication.STANDARD, logger, recorder);
+  }
+
+  /**
+   * Runs a tournament for a group of agents, playing games at the same time on a pool of threads,
+   * with players charged on the given clock.
+   * This is otherwise identical to {@link #tournament(Agent[],int,int,int,long,PrintStream,GameRecorder)}.
+   * Each agent is created by its class's zero parameter constructor, as described in {@link #factory(Agent)}.
+   * With the {@link Clock#CPU} clock, players are only charged for the processor time they use,
+   * so more games than processors can be played at once without changing the results of timed games.
+   * Games that are drawn or adjudicated are scored by the winner and loser given by the board.
+   * @param bots an array of Agents to compete in the contest, which are used as templates for the agents in each game.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param numGames the number of games played by each group of three agents.
+   * @param threads the number of games to play at the same time.
+   * @param seed the seed for the assignment of colours.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which must be safe to use from several threads, and is not closed when the tournament ends.
+   * @throws IllegalArgumentException if an agent requires manual input, or does not have a public zero parameter constructor.
+   * @throws RuntimeException if a game fails, with the exception thrown by the game as its cause.
+   * **/
+  public static void tournament(Agent[] bots, int timeLimit, int numGames, int threads, long seed, Clock clock, Adjudication adjudication, 
+      PrintStream logger, GameRecorder recorder){
+    tournament(bots, factories(bots), timeLimit, numGames, threads, seed, clock, adjudication, logger, recorder);
+  }
+
+  /**
+   * Runs a tournament for a group of agents, playing games at the same time on a pool of threads,
+   * with each agent in each game created by a factory for its entrant.
+   * This is otherwise identical to {@link #tournament(Agent[],int,int,int,long,Clock,Adjudication,PrintStream,GameRecorder)}.
+   * Each factory is given a seed drawn for the game from the tournament seed, for any random choices of the agent,
+   * so a tournament with the same seed plays the same games if every agent plays the same moves given the same seed and position.
+   * That is not the case for agents that search for a fixed time or on several threads, or in timed games that are lost on time.
+   * The results of each entrant are reported under the name of an agent created with the tournament seed.
+   * @param entrants a factory for each agent competing in the contest, which must return a new agent each time it is called.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param numGames the number of games played by each group of three agents.
+   * @param threads the number of games to play at the same time.
+   * @param seed the seed for the assignment of colours and the seeds given to the factories.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param logger a printStream to write the tournament results to.
+   * @param recorder the recorder for the games, which must be safe to use from several threads, and is not closed when the tournament ends.
+   * @throws IllegalArgumentException if an agent requires manual input.
+   * @throws RuntimeException if a game fails, with the exception thrown by the game as its cause.
+   * **/
+  public static void tournament(List<LongFunction<Agent>> entrants, int timeLimit, int numGames, int threads, long seed, Clock clock, 
+      Adjudication adjudication, PrintStream logger, GameRecorder recorder){
+    tournament(names(entrants, seed), entrants, timeLimit, numGames, threads, seed, clock, adjudication, logger, recorder);
+  }
+
+  /** Runs a parallel tournament, crediting the results of each factory's agents to the agent at the same index of bots. **/
+  private static void tournament(Agent[] bots, List<LongFunction<Agent>> entrants, int timeLimit, int numGames, int threads, long seed, 
+      Clock clock, Adjudication adjudication, PrintStream logger, GameRecorder recorder){
+    HashMap<Agent, Statistics> scoreboard = new HashMap<Agent,Statistics>();
+    for(Agent a: bots){
+      if(!a.isAutonomous()) throw new IllegalArgumentException(a+" requires manual input, so cannot play in parallel");
+      scoreboard.put(a, new Statistics(a));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> games = new ArrayList<Future<?>>();
+    int game = 0;
+    for(int i = 0; i<bots.length; i++){
+      for(int j = i+1; j<bots.length; j++){
+        for(int k = j+1; k<bots.length; k++){
+          for(int g = 0; g<numGames; g++){
+            int[] players = {i,j,k};
+            Random gameRandom = gameRandom(seed, game++);
+            int[] ord = perms[gameRandom.nextInt(perms.length)];
+            int[] order = {players[ord[0]],players[ord[1]],players[ord[2]]};
+            Agent[] agents = {bots[order[0]],bots[order[1]],bots[order[2]]};
+            long[] seeds = {gameRandom.nextLong(),gameRandom.nextLong(),gameRandom.nextLong()};
+            games.add(pool.submit(() -> {
+              int[] res = play(entrants.get(order[0]).apply(seeds[0]),entrants.get(order[1]).apply(seeds[1]),entrants.get(order[2]).apply(seeds[2]), 
+                  timeLimit, 0, clock, adjudication, recorder, false);
+              for(int o = 0; o<3;o++)scoreboard.get(agents[o]).update(res[o]);
+            }));
+          }
+        }
+      }
+    }
+    pool.shutdown();
+    try{
+      for(Future<?> f: games) f.get();
+    }
+    catch(ExecutionException e){
+      pool.shutdownNow();
+      throw new RuntimeException("Tournament game failed", e.getCause());
+    }
+    catch(InterruptedException e){
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+      return;
+    }
+    printResults(bots, scoreboard, logger);
+  }
+
+  /**
+   * Creates a factory for the agents of a tournament from a template, 
+   * which creates new instances of the template's class with its zero parameter constructor and ignores the seed.
+   * Only the class of the template is used, so the agents do not have any settings given to the template's constructor.
+   * @param template the agent whose class is instantiated.
+   * @return a factory creating a new agent each time it is called.
+   * @throws IllegalArgumentException if the agent does not have a public zero parameter constructor.
+   * **/
+  public static LongFunction<Agent> factory(Agent template){
+    Constructor<? extends Agent> constructor;
+    try{
+      constructor = template.getClass().getConstructor();
+    }
+    catch(NoSuchMethodException e){
+      throw new IllegalArgumentException(template+" must have a public zero parameter constructor", e);
+    }
+    return seed -> {
+      try{
+        return constructor.newInstance();
+      }
+      catch(ReflectiveOperationException e){
+        throw new IllegalStateException(template+" could not be created", e);
+      }
+    };
+  }
+
+  /** @return a factory for each template, as created by {@link #factory(Agent)}. **/
+  static List<LongFunction<Agent>> factories(Agent[] bots){
+    List<LongFunction<Agent>> entrants = new ArrayList<LongFunction<Agent>>();
+    for(Agent a: bots) entrants.add(factory(a));
+    return entrants;
+  }
+
+  /** @return an agent from each factory, created with the tournament seed, to report the entrant's results under. **/
+  static Agent[] names(List<LongFunction<Agent>> entrants, long seed){
+    Agent[] bots = new Agent[entrants.size()];
+    for(int i = 0; i<bots.length; i++) bots[i] = entrants.get(i).apply(seed);
+    return bots;
+  }
+
+  /** @return the random number generator for a game of a tournament, which assigns its colours and the seeds of its agents. **/
+  static Random gameRandom(long seed, int game){
+    return new Random(seed+0x9E3779B97F4A7C15L*game);
+  }
+
+  /** Prints the statistics for each agent, and the agents ranked by average score. **/
+  static void printResults(Agent[] bots, Map<Agent, Statistics> scoreboard, PrintStream logger){
     for(Agent a: bots)logger.println(scoreboard.get(a));
     logger.println("Rank\tAgent\t\tWon\tLost\tPlayed\tAvg\n");
     Statistics[] results = (Statistics[]) scoreboard.values().toArray(new Statistics[0]);
@@ -115,6 +316,7 @@ public class ThreeChess{
     int rank = 1;
     for(Statistics stat:results)
       logger.println(rank++ +"\t"+stat.agent+"\t\t"+stat.won+"\t"+stat.lost+"\t"+stat.played+"\t"+stat.average()+"\n");
+    logger.flush();
   }
   
   /**
@@ -125,65 +327,464 @@ public class ThreeChess{
    * @param green the agent playing the green pieces.
    * @param red the Agent playing the red pieces.
    * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
-   * @param logger a printStream to write the game moves to.
+   * @param logger a printStream to write the game moves to, in the format of {@link TextGameRecorder}.
    * @param displayOn a boolean flag for whether the game should be graphically displayed
    * @return an array of three ints, the scores for blue, green and red, in that order.
    * **/
   public static int[] play(Agent blue, Agent green, Agent red, int timeLimit, PrintStream logger, boolean displayOn){
+    return play(blue, green, red, timeLimit, new TextGameRecorder(logger), displayOn);
+  }
+
+  /**
+   * Runs a threeChess game between three players, recording it with a game recorder.
+   * There is an option to display the board, and a time limit may be specified for a timed game.
+   * @param blue the agent playing the blue pieces.
+   * @param green the agent playing the green pieces.
+   * @param red the Agent playing the red pieces.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param recorder the recorder to write the game to, which is not closed when the game ends.
+   * @param displayOn a boolean flag for whether the game should be graphically displayed
+   * @return an array of three ints, the scores for blue, green and red, in that order.
+   * **/
+  public static int[] play(Agent blue, Agent green, Agent red, int timeLimit, GameRecorder recorder, boolean displayOn){
+    return play(blue, green, red, timeLimit, 0, recorder, displayOn);
+  }
+
+  /**
+   * Runs a threeChess game between three players, with a deadline for each move.
+   * Autonomous agents choose their moves on a separate thread, which is abandoned if the deadline passes.
+   * An abandoned move is interrupted and its threads are lowered to the minimum priority, but they are never killed, 
+   * as stopping a thread part way through an update could leave the agent's state corrupt.
+   * If its threads are still running a second later, the agent forfeits the game when it is next asked to move, 
+   * in this game or any later one, until they end, as if it had run out of time.
+   * In a timed game the deadline is the player's remaining time plus a short grace period, 
+   * and a player who misses it is charged the time taken and loses the game on time.
+   * In an untimed game the deadline is the move limit, and a player who misses it passes: 
+   * their turn is skipped with {@link Board#pass()}, and the game carries on.
+   * Agents requiring manual input are never abandoned, and are only charged their time after they move.
+   * Autonomous agents that can ponder are asked to think on another thread while other players move, as described in {@link Agent#canPonder()}.
+   * @param blue the agent playing the blue pieces.
+   * @param green the agent playing the green pieces.
+   * @param red the Agent playing the red pieces.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param moveLimit the time allowed for each move in an untimed game (in milliseconds), or less than or equal to zero for no limit.
+   * @param recorder the recorder to write the game to, which is not closed when the game ends.
+   * @param displayOn a boolean flag for whether the game should be graphically displayed
+   * @return an array of three ints, the scores for blue, green and red, in that order.
+   * **/
+  public static int[] play(Agent blue, Agent green, Agent red, int timeLimit, int moveLimit, GameRecorder recorder, boolean displayOn){
+    return play(blue, green, red, timeLimit, moveLimit, Clock.WALL, Adjudication.STANDARD, recorder, displayOn);
+  }
+
+  /**
+   * Runs a threeChess game between three players, with a deadline for each move, charging players on the given clock.
+   * This is otherwise identical to {@link #play(Agent,Agent,Agent,int,int,GameRecorder,boolean)}, 
+   * except that games are adjudicated by the given rules rather than the standard rules, 
+   * which draw a game when a position occurs for the third time.
+   * Both the real time and processor time of each move are recorded on the board and by the recorder, 
+   * but only the time on the given clock is taken from the player's remaining time.
+   * With the {@link Clock#CPU} clock, a move is abandoned when the processor time used by its threads, including any the agent starts for the move, passes the deadline, 
+   * or the real time passes a multiple of the deadline, so an agent that waits without using the processor is still stopped.
+   * @param blue the agent playing the blue pieces.
+   * @param green the agent playing the green pieces.
+   * @param red the Agent playing the red pieces.
+   * @param timeLimit the cumulative time each player has (in seconds). To specify an untimed game, set as less than or equal to zero.
+   * @param moveLimit the time allowed for each move in an untimed game (in milliseconds), or less than or equal to zero for no limit.
+   * @param clock the clock to charge players with.
+   * @param adjudication the rules for ending games by repetition or length.
+   * @param recorder the recorder to write the game to, which is not closed when the game ends.
+   * @param displayOn a boolean flag for whether the game should be graphically displayed
+   * @return an array of three ints, the scores for blue, green and red, in that order: 
+   * +1 for the winner, -1 for the loser and 0 for other players (including both in a draw), or -2 for an illegal move and +1 for the others.
+   * @throws UnsupportedOperationException if the CPU clock is requested but the Java virtual machine cannot measure thread processor time.
+   * **/
+  public static int[] play(Agent blue, Agent green, Agent red, int timeLimit, int moveLimit, Clock clock, Adjudication adjudication, 
+      GameRecorder recorder, boolean displayOn){
+    return play(blue, green, red, timeLimit, moveLimit, clock, adjudication, recorder, displayOn, null);
+  }
+
+  /**
+   * Runs a threeChess game as in {@link #play(Agent,Agent,Agent,int,int,Clock,Adjudication,GameRecorder,boolean)},
+   * limiting the number of moves of autonomous agents being chosen at once, by this and any other game sharing the permits.
+   * With permits, the moves of autonomous agents are always chosen on a thread of their own, even when there is no deadline,
+   * so the thread playing the game only waits for them. Agents do not ponder when their moves are limited by permits.
+   * @param moves the permits for choosing moves, each held while a move is chosen, or null to choose moves without a limit.
+   * **/
+  static int[] play(Agent blue, Agent green, Agent red, int timeLimit, int moveLimit, Clock clock, Adjudication adjudication, 
+      GameRecorder recorder, boolean displayOn, Semaphore moves){
+    if(clock==Clock.CPU){
+      if(!threadBean.isThreadCpuTimeSupported()) throw new UnsupportedOperationException("Thread CPU time is not supported");
+      if(!threadBean.isThreadCpuTimeEnabled()) threadBean.setThreadCpuTimeEnabled(true);
+    }
     Board board = new Board(timeLimit>0?timeLimit*1000:1);
     boolean timed = timeLimit>0;
-    logger.println("======NEW GAME======");
-    logger.println("BLUE: "+blue.toString());
-    logger.println("GREEN: "+green.toString());
-    logger.println("RED: "+red.toString());
+    GameRecorder.Recording recording = recorder.startGame(blue.toString(), green.toString(), red.toString(), timeLimit, clock);
     ThreeChessDisplay display = null;
     if(displayOn) {
       display = new ThreeChessDisplay(board, blue.toString(), green.toString(), red.toString());
       GUIAgent.currentDisplay = display;
     }
-    while(!board.gameOver()){//note in an untimed game, this loop can run infinitely.
-      Colour colour = board.getTurn();
-      Agent current = (colour==Colour.BLUE?blue:(colour==Colour.GREEN?green:red));
-      long startTime = System.nanoTime();
-      Position[] move = null;
-      try{
-        move = current.playMove((Board) board.clone());
-      }catch(CloneNotSupportedException e){}
-      //How to deal with infinite loops here?
-      //make agents runnable abstract classes and provide a final method for running a move?
-      //set board as a variable
-      //run executes the move method
-      //setup a timeout?
-      long time = (System.nanoTime() - startTime + 500_000L) / 1_000_000L; // Rounds to nearest millisecond
-      if(move!=null && move.length==2 && board.isLegalMove(move[0],move[1])){
-        try{
-          board.move(move[0],move[1],(timed?(int)time:0));
-          logger.println(colour + ": " + move[0] + '-' + move[1] + " t:" + time);
-          if(displayOn){
-            // There's no point in sleeping if we have to wait for the user to input their move anyway.
-            if (current.isAutonomous()) {
-              try{Thread.sleep(pause);}
-              catch(InterruptedException e){}
+    Map<Long,Integer> positions = new HashMap<Long,Integer>();//the number of times each position has occurred, by hash
+    positions.put(board.hash(), 1);
+    Agent[] agents = {blue, green, red};
+    Map<Agent,Ponder> ponders = new IdentityHashMap<Agent,Ponder>();//the agents thinking while others move
+    try{
+      while(!board.gameOver()){//note in an untimed game without adjudication, this loop can run infinitely.
+        Colour colour = board.getTurn();
+        Agent current = (colour==Colour.BLUE?blue:(colour==Colour.GREEN?green:red));
+        long deadline = timed ? board.getTimeLeft(colour)+grace : moveLimit;
+        long[] cpuTime = new long[1];
+        long startTime = System.nanoTime();
+        Ponder ponder = ponders.remove(current);
+        if(ponder!=null) ponder.stop();//the wait for the agent to stop pondering is charged to its move
+        if(hasLeaked(current)){//the agent is still running abandoned threads, so it forfeits rather than being trusted with another move
+          board.forfeit(0);
+          continue;
+        }
+        Position[] move = null;
+        boolean timedOut = false;
+        if(!current.isAutonomous() || (deadline<=0 && moves==null)){
+          long startCpu = threadBean.getCurrentThreadCpuTime();
+          move = current.playMove(board.snapshot());
+          cpuTime[0] = threadBean.getCurrentThreadCpuTime() - startCpu;
+        }
+        else{
+          try{
+            move = requestMove(current, board.snapshot(), deadline, clock, cpuTime, moves);
+          }
+          catch(TimeoutException e){timedOut = true;}
+        }
+        long time = (System.nanoTime() - startTime + 500_000L) / 1_000_000L; // Rounds to nearest millisecond
+        long cpu = (cpuTime[0] + 500_000L) / 1_000_000L;
+        int charged = (int)(clock==Clock.CPU ? cpu : time);
+        board.recordTimeUsed(colour, (int)time, (int)cpu);
+        if(timedOut && timed){//the player has run out of time, and loses
+          board.forfeit(charged);
+        }
+        else if(timedOut){//the player missed the move limit of an untimed game, so their turn is skipped and the game carries on
+          board.pass();
+          recording.pass(colour, (int)time, (int)cpu);
+          adjudicate(board, adjudication, positions);
+          if(!board.gameOver() && moves==null) ponder(board, current, agents, ponders);
+          if(displayOn) display.repaintCanvas();
+        }
+        else if(move!=null && move.length==2 && board.isLegalMove(move[0],move[1])){
+          try{
+            board.move(move[0],move[1],(timed?charged:0));
+            recording.move(colour, move[0], move[1], (int)time, (int)cpu);
+            if(!board.gameOver()) adjudicate(board, adjudication, positions);
+            if(!board.gameOver() && moves==null) ponder(board, current, agents, ponders);
+            if(displayOn){
+              // There's no point in sleeping if we have to wait for the user to input their move anyway.
+              if (current.isAutonomous()) {
+                try{Thread.sleep(pause);}
+                catch(InterruptedException e){}
+              }
+              display.repaintCanvas();
             }
-            display.repaintCanvas();
           }
+          catch(ImpossiblePositionException e){}//not possible, as the move was checked to be legal
+        }
+        else{//Illegal move results in immediate loss, -2 penalty, and a win awarded to the other two players.
+          int[] ret = {1,1,1};
+          ret[board.getTurn().ordinal()] = -2;
+          recording.end(board, ret);
+          return ret;
         }
-        catch(ImpossiblePositionException e){logger.println(e.getMessage());}
       }
-      else{//Illegal move results in immediate loss, -2 penalty, and a win awarded to the other two players.
-        int[] ret = {1,1,1};
-        ret[board.getTurn().ordinal()] = -2;
-        return ret;
+      GUIAgent.currentDisplay = null;
+      int[] ret = {0,0,0};
+      if(board.getWinner()!=null) ret[board.getWinner().ordinal()] = 1;
+      if(board.getLoser()!=null) ret[board.getLoser().ordinal()] = -1;
+      recording.end(board, ret);
+      return ret;
+    }
+    finally{
+      for(Ponder ponder: ponders.values()) ponder.stop();
+    }
+  }
+
+  /** @return true if the agent has threads still running from an abandoned move or pondering, forgetting it once they have all ended. **/
+  private static boolean hasLeaked(Agent agent){
+    AgentThreads threads = leaked.get(agent);
+    if(threads==null) return false;
+    if(threads.isAlive()) return true;
+    leaked.remove(agent, threads);
+    return false;
+  }
+
+  /**
+   * Restarts pondering on the position after a move, for each agent that can ponder and is not the next to move.
+   * The next agent to move keeps pondering the previous position until it is asked to move.
+   * An agent playing more than one colour is only told of moves by other agents.
+   * @param mover the agent that made the move.
+   * @param agents the agents playing blue, green and red.
+   * @param ponders the pondering agents, which is updated with the new pondering.
+   * **/
+  private static void ponder(Board board, Agent mover, Agent[] agents, Map<Agent,Ponder> ponders){
+    Agent next = agents[board.getTurn().ordinal()];//stops pondering when asked to move, so the wait is charged to it
+    Set<Agent> seen = Collections.newSetFromMap(new IdentityHashMap<Agent,Boolean>());
+    for(Agent agent: agents){
+      if(agent==next || !seen.add(agent) || !agent.isAutonomous() || !agent.canPonder()) continue;
+      Ponder ponder = ponders.remove(agent);
+      if(ponder!=null) ponder.stop();
+      ponders.put(agent, new Ponder(agent, board.snapshot(), agent!=mover));
+    }
+  }
+
+  /**
+   * An agent pondering a position on its own daemon thread.
+   * Pondering is stopped by calling the agent's stopPondering method and interrupting the thread,
+   * and the referee waits a limited time for it to stop, after which the thread and any it started are abandoned as described in {@link AgentThreads#abandon(Agent,long)}.
+   * **/
+  private static class Ponder implements Runnable{
+    private final Agent agent;
+    private final Board board;
+    private final boolean opponentMoved;
+    private final AgentThreads threads;
+    private final Thread thread;
+    private boolean stopped;
+    private boolean started;
+
+    /** Starts the agent pondering the board, after being told of the opponent's move if there was one. **/
+    Ponder(Agent agent, Board board, boolean opponentMoved){
+      this.agent = agent;
+      this.board = board;
+      this.opponentMoved = opponentMoved;
+      threads = new AgentThreads(agent+" ponder");
+      thread = threads.newThread(this, agent+" ponder");
+      thread.start();
+    }
+
+    public void run(){
+      synchronized(this){
+        if(stopped) return;
+        started = true;
+      }
+      try{
+        if(opponentMoved) agent.onOpponentMove(board);
+        agent.startPondering(board);
+      }
+      catch(RuntimeException e){}//a failure while pondering does not affect the game, as the agent is still asked to move
+    }
+
+    /** Stops the pondering, waiting for the thread to end for at most the pondering limit. **/
+    void stop(){
+      boolean running;
+      synchronized(this){
+        stopped = true;
+        running = started;
       }
+      if(!running || !thread.isAlive()) return;//the thread ends without pondering if it has not started
+      agent.stopPondering();
+      threads.abandon(agent, ponderStop);
+    }
+  }
+
+  /**
+   * The threads of an agent choosing a move or pondering, which are the thread the referee starts for the work, 
+   * and every thread started from it, as they belong to the same thread group.
+   * The processor time of each thread is recorded whenever the group is measured, 
+   * so a thread that ends between measurements is charged the time it had used when it was last measured.
+   * **/
+  private static class AgentThreads{
+    private final ThreadGroup group;
+    private final Map<Long,Long> cpu = new ConcurrentHashMap<Long,Long>();//the latest processor time of each thread, by id
+
+    @SuppressWarnings("removal")
+    AgentThreads(String name){
+      group = new ThreadGroup(name);
+      group.setDaemon(true);//destroyed when its last thread ends, on Java virtual machines that do not discard unused groups themselves
+    }
+
+    /** @return a new daemon thread in the group. **/
+    Thread newThread(Runnable run, String name){
+      Thread thread = new Thread(group, run, name);
+      thread.setDaemon(true);
+      return thread;
+    }
+
+    /** @return the live threads of the group. **/
+    private Thread[] threads(){
+      Thread[] threads = new Thread[group.activeCount()+1];
+      int count;
+      while((count = group.enumerate(threads))==threads.length) threads = new Thread[2*threads.length];
+      return Arrays.copyOf(threads, count);
+    }
+
+    /** @return the processor time used by the threads of the group, in nanoseconds, after measuring every live thread. **/
+    long cpuTime(){
+      for(Thread thread: threads()){
+        long time = threadBean.getThreadCpuTime(thread.getId());
+        if(time>=0) cpu.merge(thread.getId(), time, Math::max);
+      }
+      long total = 0;
+      for(long time: cpu.values()) total += time;
+      return total;
+    }
+
+    /**
+     * Interrupts every thread of the group, and lowers them and any threads they start to the minimum priority.
+     * The threads are not killed, as a thread stopped part way through an update could leave the agent's state corrupt.
+     * If threads are still running after the wait, such as one in an endless loop that ignores interrupts, 
+     * the agent is recorded as having leaked them, and forfeits whenever it is asked to move until they end.
+     * @param agent the agent the threads work for.
+     * @param wait the time in milliseconds the threads have to end after being interrupted.
+     * **/
+    void abandon(Agent agent, long wait){
+      group.setMaxPriority(Thread.MIN_PRIORITY);
+      group.interrupt();
+      for(Thread thread: threads()) thread.setPriority(Thread.MIN_PRIORITY);
+      if(!join(wait)) leaked.put(agent, this);
+    }
+
+    /**
+     * Waits for every thread of the group to end, including threads started while waiting.
+     * @param wait the most time to wait, in milliseconds.
+     * @return true if the threads ended, or false if they are still running, or the waiting thread was interrupted.
+     * **/
+    private boolean join(long wait){
+      long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+      try{
+        for(Thread[] threads = threads(); threads.length>0; threads = threads()){
+          long left = end - System.nanoTime();
+          if(left<=0) return false;
+          TimeUnit.NANOSECONDS.timedJoin(threads[0], left);
+        }
+        return true;
+      }
+      catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    /** @return true if any thread of the group is running. **/
+    boolean isAlive(){
+      return group.activeCount()>0;
+    }
+  }
+
+  /**
+   * Ends the game if the latest move repeated a position too often, or reached the move limit.
+   * @param positions the number of times each position has occurred, by hash, which is updated with the current position.
+   * **/
+  private static void adjudicate(Board board, Adjudication adjudication, Map<Long,Integer> positions){
+    if(adjudication.getRepetitions()>0 && positions.merge(board.hash(), 1, Integer::sum)>=adjudication.getRepetitions())
+      board.draw(EndReason.REPETITION);
+    else if(adjudication.getMaxMoves()>0 && board.getMoveCount()>=adjudication.getMaxMoves()){
+      if(adjudication.isByMaterial()) board.adjudicate();
+      else board.draw(EndReason.MOVE_LIMIT);
+    }
+  }
+
+  /**
+   * Asks an agent for a move on another thread, abandoning the move if the agent takes longer than the deadline.
+   * The move is returned by the thread that chose it, so an abandoned thread that later finishes cannot affect another move.
+   * The move is chosen on a new daemon thread in a thread group of its own, so it cannot stop the program from exiting,
+   * and any threads the agent starts for the move belong to the group.
+   * The processor time of the move is that of every thread in the group, measured every {@code cpuPoll} milliseconds and when the move ends,
+   * so an agent searching on several threads is charged for all of them.
+   * With permits, the calling thread takes a permit before starting the move thread, 
+   * and the permit is returned when the move thread ends, or when the move is abandoned, 
+   * so no more move threads than there are permits run at once, apart from abandoned threads lowered to the minimum priority.
+   * Threads the agent starts for the move are not counted, so an agent should not leave them running after it moves.
+   * An abandoned move is interrupted and its threads are lowered to the minimum priority, 
+   * as described in {@link AgentThreads#abandon(Agent,long)}.
+   * The deadline is measured from when the move starts, so a move waiting for a permit is not abandoned,
+   * although the time it waits is still charged on the wall clock.
+   * @param agent the agent to move.
+   * @param board the board to give the agent.
+   * @param deadline the time allowed, in milliseconds, or less than or equal to zero to wait for the move however long it takes.
+   * @param clock the clock the deadline is measured on.
+   * @param cpuTime an array whose first element is set to the processor time used by the move's threads, in nanoseconds.
+   * @param moves the permits for choosing moves, or null to start the move without one.
+   * @return the agent's move, or null if the referee was interrupted while waiting.
+   * @throws TimeoutException if the agent does not move before the deadline.
+   * **/
+  private static Position[] requestMove(Agent agent, Board board, long deadline, Clock clock, long[] cpuTime, Semaphore moves) 
+      throws TimeoutException{
+    long[] used = new long[1];//only written by the move thread, so a late abandoned thread cannot change the caller's time
+    AtomicLong startWall = new AtomicLong();
+    AtomicReference<Thread> runner = new AtomicReference<Thread>();//set once the move starts, after its starting time
+    AtomicBoolean permit = new AtomicBoolean();//set while a permit is held for the move, so it is returned once
+    Runnable release = () -> {
+      if(permit.compareAndSet(true, false)) moves.release();
+    };
+    MoveFuture task = new MoveFuture();
+    AgentThreads threads = new AgentThreads(agent+" move");
+    Thread thread = threads.newThread(() -> {
+      try{
+        task.produce(() -> {
+          startWall.set(System.nanoTime());
+          runner.set(Thread.currentThread());
+          try{
+            return agent.playMove(board);
+          }
+          finally{
+            used[0] = threads.cpuTime();
+          }
+        });
+      }
+      finally{
+        release.run();
+      }
+    }, agent+" move");
+    long wallLimit = TimeUnit.MILLISECONDS.toNanos(clock==Clock.CPU ? cpuWallFactor*deadline : deadline);
+    long poll = TimeUnit.MILLISECONDS.toNanos(cpuPoll);
+    if(moves!=null){
+      try{
+        moves.acquire();
+      }
+      catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      permit.set(true);
+    }
+    thread.start();
+    try{
+      if(deadline<=0){
+        Position[] move = task.get();
+        cpuTime[0] = used[0];
+        return move;
+      }
+      while(true){
+        Thread running = runner.get();
+        long wait = running==null ? poll : Math.min(startWall.get() + wallLimit - System.nanoTime(), poll);
+        try{
+          Position[] move = task.get(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+          cpuTime[0] = used[0];
+          return move;
+        }
+        catch(TimeoutException e){
+          running = runner.get();
+          if(running==null) continue;//still waiting to start
+          long cpu = threads.cpuTime();
+          if(task.isDone()) continue;//the move finished while its threads were measured
+          if(startWall.get() + wallLimit - System.nanoTime() <= 0 || (clock==Clock.CPU && cpu > TimeUnit.MILLISECONDS.toNanos(deadline))){
+            task.cancel(true);
+            threads.abandon(agent, abandonWait);
+            release.run();
+            cpuTime[0] = cpu;
+            throw e;
+          }
+        }
+      }
+    }
+    catch(InterruptedException e){
+      task.cancel(true);
+      threads.abandon(agent, 0);
+      release.run();
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch(ExecutionException e){//rethrow the agent's exception, as if it had been called directly
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if(cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(agent+" failed to choose a move", cause);
     }
-    GUIAgent.currentDisplay = null;
-    logger.println("=====Game Over=====");
-    int[] ret = {0,0,0};
-    ret[board.getWinner().ordinal()] = 1;
-    ret[board.getLoser().ordinal()] = -1;
-    for(Colour c:Colour.values())
-      logger.println(c+" score:"+ret[c.ordinal()]+" time:"+board.getTimeLeft(c)+" points:"+ ret[c.ordinal()]);
-    return ret;
   }
 
   /**
@@ -217,10 +818,7 @@ public class ThreeChess{
     Agent agent = new ManualAgent();
     ThreeChessDisplay display = new ThreeChessDisplay(board, "Blue", "Green", "Red");
     while(!board.gameOver()){//note in an untimed game, this loop can run infinitely.
-      Position[] move = null;
-      try{
-        move = agent.playMove((Board) board.clone());
-      }catch(CloneNotSupportedException e){}
+      Position[] move = agent.playMove(board.snapshot());
       if(move!=null && move.length==2){
         try{
           board.move(move[0],move[1],0);
@@ -232,10 +830,22 @@ public class ThreeChess{
   }
 
 
+  /** 
+   * The factories for the agents of the parallel tournaments run by {@link #main(String[])}, 
+   * matching the agents of its other tournaments, which can be customised in the same way.
+   * **/
+  private static List<LongFunction<Agent>> entrants(){
+    return List.of(seed -> new MonteCarloAgent(), seed -> new RandomAgent(seed), seed -> new RandomAgent(seed));
+  }
+
   /**
    * This method can be customised to run tournaments with agents added in the code (add them to array bots), 
    * or manual games between players, or a cheat mode which is effectively a board that can be freely manipulated.
-   * Run program with parameter "manual" for a game with moves added in the command line, "cheat" to ignore all rules, and no parameters to run a tournament between agents listed in bots.
+   * Run program with parameter "manual" for a game with moves added in the command line, "cheat" to ignore all rules, 
+   * "parallel" (optionally followed by a number of threads) to run a game per thread between the agents created by entrants, 
+   * "sequential" (optionally followed by a number of threads) to run a {@link SequentialTournament} between the same agents, 
+   * playing rounds until the ordering of each pair of agents is decided and printing their Elo ratings,
+   * and no parameters to run a tournament between agents listed in bots.
    **/
   public static void main(String[] args){
     Agent[] bots = {new MonteCarloAgent(), new RandomAgent(), new RandomAgent()};
@@ -250,6 +860,18 @@ public class ThreeChess{
     else if (args.length > 0 && args[0].equals("cheat")){
       playCheat();
     }
+    else if (args.length > 0 && args[0].equals("parallel")){
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      GameRecorder recorder = new TextGameRecorder(System.out);
+      tournament(entrants(),10000,10,threads,0L,Clock.WALL,Adjudication.STANDARD,System.out,recorder);
+      recorder.close();
+    }
+    else if (args.length > 0 && args[0].equals("sequential")){
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      GameRecorder recorder = new TextGameRecorder(System.out);
+      SequentialTournament.STANDARD.run(entrants(),10000,threads,0L,Clock.WALL,Adjudication.STANDARD,System.out,recorder);
+      recorder.close();
+    }
     else tournament(bots,10000,1,false,null);
   }
 }
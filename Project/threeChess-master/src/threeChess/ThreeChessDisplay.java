@@ -212,6 +212,10 @@ public class ThreeChessDisplay extends JFrame {
   private Board getHistoryBoard(int moveIndex) {
     CheatBoard historyBoard = new CheatBoard();
     for (int index = 0; index < moveIndex; ++index) {
+      if (board.isPass(index)) {
+        historyBoard.pass();
+        continue;
+      }
       Position[] move = board.getMove(index);
       try {
         historyBoard.move(move[0], move[1]);
@@ -254,7 +258,7 @@ public class ThreeChessDisplay extends JFrame {
 
   /** @return whether the display is currently waiting for the user to make a move. **/
   public boolean waitingForManualMove() {
-    return manualMoveFuture != null;
+    return manualMoveFuture != null && !manualMoveFuture.isDone();
   }
 
   /** Called when the user moves their mouse. **/
@@ -276,7 +280,7 @@ public class ThreeChessDisplay extends JFrame {
 
     Square square = getSquare(x, y);
     // Set the mouse cursor to a hand if it would be a valid click.
-    if (manualMoveFuture == null
+    if (!waitingForManualMove()
         || square == null
         || manualMoveFrom == square.pos
         || (manualMoveFrom == null && square.piece == null)
@@ -309,7 +313,7 @@ public class ThreeChessDisplay extends JFrame {
       return;
     }
     // If we're not expecting the user to make a move, ignore clicks.
-    if (displayingHistory() || manualMoveFuture == null)
+    if (displayingHistory() || !waitingForManualMove())
       return;
 
     Square square = getSquare(x, y);
@@ -330,13 +334,9 @@ public class ThreeChessDisplay extends JFrame {
       return;
     }
     // The user has selected a piece to move, and now a position to move it to, so complete the future.
-    try {
-      manualMoveFuture.complete(new Position[] {manualMoveFrom, square.pos});
-      manualMoveFuture = null;
-      manualMoveFrom = null;
-    } catch (InterruptedException interruptedException) {
-      interruptedException.printStackTrace();
-    }
+    manualMoveFuture.complete(new Position[] {manualMoveFrom, square.pos});
+    manualMoveFuture = null;
+    manualMoveFrom = null;
   }
 
   /**
@@ -405,8 +405,8 @@ public class ThreeChessDisplay extends JFrame {
     for(Position pos: Position.values())squares[pos.ordinal()].setPiece(board.getPiece(pos));
     for(Square sq: squares) sq.draw(g);
 
-    // If we're displaying the history, we want to draw the move as well.
-    if (displayingHistory()) {
+    // If we're displaying the history, we want to draw the move as well, unless the player passed.
+    if (displayingHistory() && !this.board.isPass(historyMoveIndex)) {
       Position[] move = this.board.getMove(historyMoveIndex);
       Square from = squares[move[0].ordinal()];
       Square to = squares[move[1].ordinal()];
@@ -0,0 +1,106 @@
+package threeChess;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Checks the Zobrist hash of the board against full comparisons of positions.
+ * Seeded random games are played, and every position reached is checked:
+ * making and unmaking each legal move must restore the hash and the position,
+ * encoding and decoding the board must give the same hash and position,
+ * and for every pair of positions reached, the hashes must be equal exactly when {@link Board#samePosition(Board)} is true.
+ * Run with "java -cp bin threeChess.ZobristCheck [seed] [games] [moves]", which exits with status 1 if a check fails.
+ * **/
+public class ZobristCheck{
+
+  private ZobristCheck(){}
+
+  /**
+   * Plays seeded random games and checks the hash of every position reached.
+   * @param seed the seed for the choice of moves.
+   * @param games the number of games to play.
+   * @param length the most moves played in each game.
+   * @return true if every check passes.
+   * **/
+  public static boolean verify(long seed, int games, int length){
+    Random random = new Random(seed);
+    List<Board> positions = new ArrayList<Board>();
+    int[] moves = new int[Board.MAX_MOVES];
+    ByteBuffer buffer = ByteBuffer.allocate(Board.ENCODED_SIZE);
+    boolean pass = true;
+    for(int game = 0; game<games; game++){
+      Board board = new Board(0);
+      while(!board.gameOver() && board.getMoveCount()<length){
+        positions.add(board.snapshot());
+        pass &= checkUndo(board, moves);
+        pass &= checkCodec(board, buffer);
+        int count = board.generateMoves(moves);
+        if(count==0) break;
+        make(board, moves[random.nextInt(count)]);
+      }
+    }
+    int same = 0;
+    for(int i = 0; i<positions.size(); i++){
+      for(int j = i+1; j<positions.size(); j++){
+        Board a = positions.get(i), b = positions.get(j);
+        boolean equalHash = a.hash()==b.hash(), samePosition = a.samePosition(b);
+        if(samePosition) same++;
+        if(equalHash!=samePosition){
+          System.out.println("positions "+i+" and "+j+(samePosition?" are the same with different hashes":" differ with the same hash"));
+          pass = false;
+        }
+      }
+    }
+    System.out.println(positions.size()+" positions, "+same+" repeated pairs"+(pass?" ok":" FAILED"));
+    return pass;
+  }
+
+  /** @return true if making and unmaking each legal move restores the hash and position. **/
+  private static boolean checkUndo(Board board, int[] moves){
+    long hash = board.hash();
+    Board before = board.snapshot();
+    int count = board.generateMoves(moves);
+    for(int i = 0; i<count; i++){
+      make(board, moves[i]);
+      board.unmakeMove();
+      if(board.hash()!=hash || !board.samePosition(before)){
+        System.out.println("unmaking "+Move.toString(moves[i])+" after "+board.getMoveCount()+" moves did not restore the position");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if decoding the encoded board gives the same hash and position. **/
+  private static boolean checkCodec(Board board, ByteBuffer buffer){
+    buffer.clear();
+    board.encode(buffer);
+    buffer.flip();
+    Board decoded = Board.decode(buffer);
+    if(decoded.hash()!=board.hash() || !decoded.samePosition(board)){
+      System.out.println("decoding the position after "+board.getMoveCount()+" moves changed the position or hash");
+      return false;
+    }
+    return true;
+  }
+
+  /** Makes a generated move, which must be legal. **/
+  private static void make(Board board, int move){
+    try{
+      board.makeMove(Move.start(move), Move.end(move));
+    }catch(ImpossiblePositionException e){
+      throw new IllegalStateException("Generated an illegal move "+Move.toString(move), e);
+    }
+  }
+
+  /**
+   * Runs the checks, exiting with status 1 if any fail.
+   * The optional arguments are the seed (default 3001), the number of games (default 20) and the most moves in each game (default 150).
+   **/
+  public static void main(String[] args){
+    long seed = args.length>0 ? Long.parseLong(args[0]) : 3001L;
+    int games = args.length>1 ? Integer.parseInt(args[1]) : 20;
+    int length = args.length>2 ? Integer.parseInt(args[2]) : 150;
+    if(!verify(seed, games, length)) System.exit(1);
+  }
+}
@@ -2,9 +2,12 @@ package threeChess.agents;
 
 import threeChess.Agent;
 import threeChess.Board;
+import threeChess.MoveFuture;
 import threeChess.Position;
 import threeChess.ThreeChessDisplay;
 
+import java.util.concurrent.ExecutionException;
+
 /**
  * An agent that allows the user to select its moves through the display.
  */
@@ -34,13 +37,21 @@ public class GUIAgent extends Agent {
 
   /** Gets and returns a move from the display for this agent. **/
   public Position[] playMove(Board board){
+    MoveFuture move = playMoveAsync(board);
     try {
-      return currentDisplay.askForMove().get();
-    } catch (InterruptedException e) {
+      return move.get();
+    } catch (InterruptedException | ExecutionException e) {
+      move.cancel(true); // Stops the display waiting for a move that is no longer wanted.
       throw new RuntimeException("Exception waiting for user to enter move on display", e);
     }
   }
 
+  /** @return the display's future for the move the user enters, which stops waiting for the user if cancelled. **/
+  @Override
+  public MoveFuture playMoveAsync(Board board){
+    return currentDisplay.askForMove();
+  }
+
   /** @return the Agent's name, for annotating game description. **/
   public String toString(){return name;}
 
@@ -3,16 +3,78 @@ package threeChess.agents;
 import threeChess.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
 
 public class MonteCarloAgent extends Agent {
+	// updates a node's statistics atomically, so workers can share the tree
+	private static final AtomicIntegerFieldUpdater<Node> VISITS = AtomicIntegerFieldUpdater.newUpdater(Node.class, "numVisit");
+	private static final AtomicIntegerFieldUpdater<Node> SCORE = AtomicIntegerFieldUpdater.newUpdater(Node.class, "score");
+	private static final int VIRTUAL_LOSS = 1; // losses added to a node while a worker's iteration passes through it
+
 	private String name = "Monte";
 	private Colour Player;
 	private Node root = null;
 	private int turnTime = 500;
-	private Board prevView;
-	private Board view;
+	private final int iterations; // iterations searched per move, or 0 to search for turnTime
+	private final int threads; // workers searching each move
+	private final boolean rootParallel; // whether each worker searches its own tree, rather than sharing one
+	private int[] history = new int[0]; // the packed moves before the root, to check a later board continues the same game
+	private final Random random;
+	private long stop; // when a timed search ends
+	private final AtomicInteger remaining = new AtomicInteger(); // iterations left in a search of fixed size
+	private volatile boolean cancelled; // set when the thread asking for a move is interrupted, or pondering is stopped
+	private boolean pondering; // set while searching another player's turn, which runs until it is stopped
 
 	public MonteCarloAgent() {
+		this(0, new Random(), 1, false);
+	}
+
+	/**
+	 * Creates an agent that searches a fixed number of iterations per move, rather
+	 * than for a fixed time, with a seeded random number generator, so that the
+	 * search is repeatable and its speed can be measured.
+	 * @param iterations the number of iterations to search per move.
+	 * @param seed the seed for the random simulations.
+	 **/
+	public MonteCarloAgent(int iterations, long seed) {
+		this(iterations, new Random(seed), 1, false);
+	}
+
+	/**
+	 * Creates an agent that searches for a fixed time per move with several worker
+	 * threads, each with its own copy of the board. In a tree parallel search the
+	 * workers share one tree, and virtual losses keep them on different paths. In
+	 * a root parallel search each worker grows its own tree from the position,
+	 * and the trees' statistics for each move are added together to choose the
+	 * move. A root parallel search starts every move from new trees.
+	 * @param threads the number of worker threads, including the thread asking for the move.
+	 * @param rootParallel whether to search independent trees rather than one shared tree.
+	 **/
+	public MonteCarloAgent(int threads, boolean rootParallel) {
+		this(0, new Random(), threads, rootParallel);
+	}
+
+	/**
+	 * Creates an agent that searches a fixed number of iterations per move, shared
+	 * between several worker threads. The workers' simulations are seeded from the
+	 * seed, but with more than one thread the order in which they update the tree
+	 * varies, so only the single thread search is repeatable.
+	 * @param iterations the number of iterations to search per move.
+	 * @param seed the seed for the random simulations.
+	 * @param threads the number of worker threads, including the thread asking for the move.
+	 * @param rootParallel whether to search independent trees rather than one shared tree.
+	 **/
+	public MonteCarloAgent(int iterations, long seed, int threads, boolean rootParallel) {
+		this(iterations, new Random(seed), threads, rootParallel);
+	}
+
+	private MonteCarloAgent(int iterations, Random random, int threads, boolean rootParallel) {
+		if (threads < 1)
+			throw new IllegalArgumentException("A search needs at least one thread");
+		this.iterations = iterations;
+		this.random = random;
+		this.threads = threads;
+		this.rootParallel = rootParallel;
 	}
 
 	/**
@@ -26,285 +88,355 @@ public class MonteCarloAgent extends Agent {
 	 * is the position to move that piece to.
 	 **/
 	public Position[] playMove(Board board) {
-		try {
-			view = (Board) board.clone();
-		} catch (CloneNotSupportedException e) {
+		setRoot(board, board.getTurn());
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; i++) {
+			// the first worker uses the agent's generator, so a single thread search is unchanged by the workers
+			Random generator = i == 0 ? random : new Random(random.nextLong());
+			workers.add(new Worker(board, rootParallel && i > 0 ? newRoot(board) : root, generator));
 		}
-		setRoot(board);
 
-		// Performs MCTS for specified time
-		for (long stop = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(turnTime); stop > System.nanoTime();) {
-			Node current = root;
-			try {
-				view = (Board) board.clone();
-			} catch (CloneNotSupportedException e) {
+		// Performs MCTS for specified time, or number of iterations
+		stop = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(turnTime);
+		remaining.set(iterations);
+		cancelled = false;
+		search(workers);
+
+		// Picks the move with the best average, over every tree in a root parallel search
+		List<Node> children = root.children;
+		int[] visits = new int[children.size()];
+		int[] scores = new int[children.size()];
+		for (Worker worker : workers) {
+			if (worker.root != root && worker.root.children.size() != children.size())
+				continue; // the trees were expanded from the same position, so this cannot happen
+			for (int i = 0; i < children.size(); i++) {
+				visits[i] += worker.root.children.get(i).numVisit;
+				scores[i] += worker.root.children.get(i).score;
 			}
+			if (!rootParallel)
+				break;
+		}
+		int bestIndex = 0;
+		double best = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < children.size(); i++) {
+			double test = (double) scores[i] / visits[i];
+			if (test > best) {
+				best = test;
+				bestIndex = i;
+			}
+		}
+		Position[] move = children.get(bestIndex).move;
+		if (rootParallel)
+			root = null; // the trees are not kept, as no one tree holds the statistics of the search
+		return move;
+	}
 
-			// Explores the tree to select the best node
-			while (current.numVisit != 0) {
-				double best = Double.MIN_VALUE;
-				Node bestNode = current;
-				for (Node n : current.children) {
-					if (n.numVisit == 0) {
-						bestNode = n;
-						break;
-					} else {
-						double uct = ucb1(n);
-						if (uct > best) {
-							bestNode = n;
-							best = uct;
-						}
-					}
-				}
-				if (current == bestNode)
-					break; // catch when assignments fail due to game over node being reached
-				current = bestNode;
-
-				// moves view of the board to the current state
-				try {
-					view.move(current.move[0], current.move[1]);
-				} catch (ImpossiblePositionException e) {}
+	public String toString() {
+		return this.name;
+	}
 
-				// expands the node when it is a leaf
-				if (current.children.isEmpty() && current.numVisit != 0) {
-					expandNode(current);
-				}
-			}
+	public void finalBoard(Board finalBoard) {
+	}
 
-			// simulates a random game to completion
-			current.score = simulate(current);
-			current.numVisit++;
+	/**
+	 * A time limited search with a shared tree ponders, so that the tree is grown
+	 * while other players choose their moves. A search of fixed size does not,
+	 * so that it stays repeatable, and a root parallel search does not, as it
+	 * does not keep its trees between moves.
+	 **/
+	public boolean canPonder() {
+		return iterations == 0 && !rootParallel;
+	}
 
-			// Propagates result back to the root
-			backPropagate(current);
+	/**
+	 * Searches the position until pondering is stopped, continuing the tree of the
+	 * agent's last move, from the agent's point of view. The next move then starts
+	 * from the subtree of the position reached, with the visits made while
+	 * pondering. Nothing is searched before the agent's first move in a game, as
+	 * until then it does not know which player it is.
+	 * @param board the position after the latest move.
+	 **/
+	public void startPondering(Board board) {
+		if (!continues(board))
+			return;
+		setRoot(board, Player);
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; i++)
+			workers.add(new Worker(board, root, i == 0 ? random : new Random(random.nextLong())));
+		// stopping just as pondering starts may be missed here, but the thread is then interrupted as well
+		cancelled = false;
+		pondering = true;
+		try {
+			search(workers);
+		} finally {
+			pondering = false;
 		}
+	}
 
-		// Picks the move with the best average
-		Node bestNode = root.children.get(0);
-		double best = bestNode.score / bestNode.numVisit;
-		for (Node child : root.children) {
-			double test = child.score / child.numVisit;
-			if (test > best) {
-				best = test;
-				bestNode = child;
+	public void stopPondering() {
+		cancelled = true;
+	}
+
+	// runs the workers until the search ends, the first on the calling thread and
+	// the others on new threads
+	private void search(List<Worker> workers) {
+		List<Thread> helpers = new ArrayList<Thread>();
+		for (int i = 1; i < workers.size(); i++) {
+			Thread helper = new Thread(workers.get(i), name + " search " + i);
+			helper.setDaemon(true);
+			helpers.add(helper);
+			helper.start();
+		}
+		workers.get(0).run();
+		for (Thread helper : helpers) {
+			try {
+				helper.join();
+			} catch (InterruptedException e) {
+				cancelled = true;
+				Thread.currentThread().interrupt();
 			}
 		}
+	}
 
-		return bestNode.move;
+	// whether a worker should start another iteration
+	private boolean searching() {
+		if (cancelled)
+			return false;
+		if (pondering)
+			return true;
+		return iterations > 0 ? remaining.getAndDecrement() > 0 : stop > System.nanoTime();
 	}
 
-	public String toString() {
-		return this.name;
+	// sets the root node based on the board passed to it, searched for the player,
+	// keeping the subtree of the previous search for the moves that were played since its root
+	private void setRoot(Board board, Colour player) {
+		Node reused = reuse(board, player);
+		Player = player;
+		if (reused == null) {
+			root = newRoot(board);
+		} else {
+			root = reused;
+			root.parent = null; // discards the rest of the previous tree
+			if (root.children.isEmpty())
+				expandNode(root, copy(board), new int[Board.MAX_MOVES]);
+		}
+		history = new int[board.getMoveCount()];
+		for (int i = 0; i < history.length; i++)
+			history[i] = board.getPackedMove(i);
 	}
 
-	public void finalBoard(Board finalBoard) {
+	// creates an expanded root node for the board's position
+	private Node newRoot(Board board) {
+		Node node = new Node(null, board.getTurn(), null);
+		expandNode(node, copy(board), new int[Board.MAX_MOVES]);
+		return node;
+	}
+
+	// walks the previous root down through the moves played since it, returning the
+	// node for the board's position, or null if the board is from another game, the
+	// previous search was for another player, or the moves were not searched
+	private Node reuse(Board board, Colour player) {
+		if (player != Player || !continues(board))
+			return null;
+		Node current = root;
+		for (int i = history.length; i < board.getMoveCount() && current != null; i++)
+			current = board.isPass(i) ? null : child(current, board.getMove(i));
+		return current;
 	}
 
-	// sets the root node based on the board passed to it.
-	private void setRoot(Board board) {
-		Player = board.getTurn();
-		Node temp = new Node(null, Player, null);
-		root = temp;
-		expandNode(root);
+	// whether the board continues the game of the previous search from its root
+	private boolean continues(Board board) {
+		if (root == null || board.getMoveCount() < history.length)
+			return false;
+		for (int i = 0; i < history.length; i++)
+			if (board.getPackedMove(i) != history[i])
+				return false;
+		return true;
+	}
+
+	// finds the child of a node reached by a move, or null if there is none
+	private Node child(Node node, Position[] move) {
+		for (Node n : node.children)
+			if (n.move[0] == move[0] && n.move[1] == move[1])
+				return n;
+		return null;
 	}
 
 	// calculates the upperconfidence bound to determine exploration and
 	// exploitation of the tree
-	private double ucb1(Node child) {
-		double exploitation = child.score / child.numVisit;
-		double exploration = Math.sqrt(2) * Math.sqrt(Math.log(child.parent.numVisit) / child.numVisit);
+	private double ucb1(Node child, int parentVisits) {
+		int visits = child.numVisit;
+		double exploitation = (double) child.score / visits;
+		double exploration = Math.sqrt(2) * Math.sqrt(Math.log(parentVisits) / visits);
 		return exploitation + exploration;
 	}
 
-	// expands node when exploring the tree
-	private void expandNode(Node current) {
-		Position[] pieces = view.getPositions(current.playerId).toArray(new Position[0]);
-
-		// creates a new node for each possible move at each state
-		for (int i = 0; i < pieces.length; i++) {
-			Position start = pieces[i];
-			Position end = start;
-			Piece mover = view.getPiece(start);
-			Direction[][] steps = mover.getType().getSteps();
-			int reps = mover.getType().getStepReps();
-			for (Direction[] step : steps) {// tests for each step
-				for (int j = 0; j < reps; j++) {
-					try {
-						end = view.step(mover, step, end, start.getColour() != end.getColour());
-					} catch (ImpossiblePositionException e) {
-						continue;
-					}
-					if (view.isLegalMove(start, end)) {
-						try {
-							prevView = (Board) view.clone();
-						} catch (CloneNotSupportedException e) {
-						}
-						try {
-							view.move(start, end);
-						} catch (ImpossiblePositionException e) {
-						}
-						Node child = new Node(current, view.getTurn(), new Position[] { start, end });
-						current.add(child);
-						view = prevView;
-					}
-				}
+	// selects the child to explore, preferring one that has not been visited
+	private Node select(Node parent, List<Node> children) {
+		int parentVisits = parent.numVisit;
+		double best = Double.NEGATIVE_INFINITY;
+		Node bestNode = children.get(0);
+		for (Node n : children) {
+			if (n.numVisit == 0)
+				return n;
+			double uct = ucb1(n, parentVisits);
+			if (uct > best) {
+				bestNode = n;
+				best = uct;
 			}
 		}
+		return bestNode;
 	}
 
-	// simulates a random game to completion from the current state
-	private double simulate(Node node) {
+	// expands node when exploring the tree, with the board at the node's position.
+	// The children are published together, so workers reading them without the
+	// lock see either none or all of them.
+	private void expandNode(Node current, Board board, int[] moves) {
+		synchronized (current) {
+			if (!current.children.isEmpty())
+				return; // expanded by another worker
+			int count = board.generateMoves(current.playerId, moves);
+			Colour next = Colour.values()[(current.playerId.ordinal() + 1) % 3];
+
+			// creates a new node for each possible move at each state
+			List<Node> children = new ArrayList<Node>(count);
+			for (int i = 0; i < count; i++)
+				children.add(new Node(current, next, Move.toArray(moves[i])));
+			current.children = children;
+		}
+	}
+
+	// returns a copy of the board, for a search to play moves on
+	private static Board copy(Board board) {
 		try {
-			prevView = (Board) view.clone();
+			return (Board) board.clone();
 		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("Board must be cloneable", e);
 		}
-		Position[][] pieces = new Position[3][0];
-		int i = 0;
-		for (Colour player : Colour.values()) {
-			pieces[i] = view.getPositions(player).toArray(new Position[0]);
-			i++;
+	}
+
+	// A thread of the search, with its own view of the board, move buffer and
+	// random number generator, so workers share nothing but the tree
+	private class Worker implements Runnable {
+		private final Board view;
+		private final Node root;
+		private final Random random;
+		private final int[] moves = new int[Board.MAX_MOVES];
+		private final int virtualLoss = threads > 1 && !rootParallel ? VIRTUAL_LOSS : 0;
+		private int plies; // moves made on the view since the root state
+
+		private Worker(Board board, Node root, Random random) {
+			this.view = copy(board);
+			this.root = root;
+			this.random = random;
 		}
-		while (!view.gameOver()) {
-
-			Position[] move;
-			int capBefore;
-			int capAfter;
-			switch (view.getTurn()) {
-				case BLUE:
-					capBefore = view.getCaptured(Colour.BLUE).size();
-					move = randomMove(view, pieces[0]);
-					try {
-						view.move(move[0], move[1]);
-					} catch (ImpossiblePositionException e) {
-					}
-					capAfter = view.getCaptured(Colour.BLUE).size();
-					pieces = updatePieces(pieces, move, 0, capBefore != capAfter);
-					break;
 
-				case GREEN:
-					capBefore = view.getCaptured(Colour.GREEN).size();
-					move = randomMove(view, pieces[1]);
-					try {
-						view.move(move[0], move[1]);
-					} catch (ImpossiblePositionException e) {
-						System.out.println("move failed");
-					}
-					capAfter = view.getCaptured(Colour.GREEN).size();
-					pieces = updatePieces(pieces, move, 1, capAfter != capBefore);
-					break;
+		public void run() {
+			while (searching()) {
+				if (Thread.currentThread().isInterrupted())
+					cancelled = true;
+				else
+					iterate();
+			}
+		}
 
-				case RED:
-					capBefore = view.getCaptured(Colour.RED).size();
-					move = randomMove(view, pieces[2]);
-					try {
-						view.move(move[0], move[1]);
-					} catch (ImpossiblePositionException e) {
-						System.out.println("move failed");
-					}
-					capAfter = view.getCaptured(Colour.RED).size();
-					pieces = updatePieces(pieces, move, 2, capAfter != capBefore);
-					break;
+		// runs one iteration: selection, expansion, simulation and back propagation
+		private void iterate() {
+			Node current = root;
+			int previous = visit(current);
+
+			// Explores the tree to select the best node, expanding a leaf on its
+			// second visit, and stopping at a node on its first
+			while (true) {
+				List<Node> children = current.children;
+				if (children.isEmpty()) {
+					if (previous == 0 || view.gameOver())
+						break;
+					expandNode(current, view, moves);
+					children = current.children;
+					if (children.isEmpty())
+						break; // no legal moves, so the game cannot be continued
+				}
+				current = select(current, children);
+				previous = visit(current);
 
+				// moves view of the board to the current state
+				makeMove(current.move[0], current.move[1]);
 			}
+
+			// simulates a random game to completion, and propagates the result back to the root
+			backPropagate(current, simulate());
+
+			// returns the view to the root state for the next iteration
+			for (; plies > 0; plies--)
+				view.unmakeMove();
 		}
-		int playerscore = 0;
-		if (view.getWinner() == root.playerId) {
-			playerscore = 1;
-		} else if (view.getLoser() == root.playerId) {
-			playerscore = -1;
+
+		// counts a visit to a node, with a virtual loss until the result is known
+		// @return the number of visits before this one
+		private int visit(Node node) {
+			if (virtualLoss != 0)
+				SCORE.addAndGet(node, -virtualLoss);
+			return VISITS.getAndIncrement(node);
 		}
-		return playerscore;
-	}
 
-	// Selects a random move for simulation
-	private Position[] randomMove(Board board, Position[] pieces) {
-		Position start = pieces[0];
-		Position end = pieces[0];
-		Random random = new Random();
-
-		while (!board.isLegalMove(start, end)) {
-			start = pieces[random.nextInt(pieces.length)];
-			Piece mover = board.getPiece(start);
-			Direction[][] steps = mover.getType().getSteps();
-			Direction[] step = steps[random.nextInt(steps.length)];
-			int reps = 1 + random.nextInt(mover.getType().getStepReps());
-			end = start;
-			try {
-				for (int i = 0; i < reps; i++) {
-					end = board.step(mover, step, end, start.getColour() != end.getColour());
-				}
-			} catch (ImpossiblePositionException e) {
+		// simulates a random game to completion from the current state
+		private int simulate() {
+			while (!view.gameOver()) {
+				int move = randomMove();
+				if (move < 0)
+					break; // no legal moves, so the game cannot be completed
+				makeMove(Move.start(move), Move.end(move));
 			}
+			int playerscore = 0;
+			if (view.getWinner() == Player) {
+				playerscore = 1;
+			} else if (view.getLoser() == Player) {
+				playerscore = -1;
+			}
+			return playerscore;
 		}
-		return new Position[] { start, end };
-	}
 
-	// Updates the position of pieces when playing a move
-	private Position[][] updatePieces(Position[][] pieces, Position[] move, int index, boolean isCapture) {
-		Position start = move[0];
-		Position end = move[1];
-		Position[][] updated = new Position[3][0];
-		Position[] toUpdate;
-		for (int i = 0; i < 3; i++) {
-			toUpdate = new Position[pieces[i].length];
-			for (int j = 0; j < pieces[i].length; j++) {
-				if (i == index && pieces[i][j].equals(start)) {
-					toUpdate[j] = end;
-					continue;
-				}
-				if (isCapture && pieces[i][j].equals(end)) {
-					toUpdate = new Position[pieces[i].length - 1];
-					for (int k = 0, l = 0; k < pieces[i].length; k++) {
-						if (k == j)
-							continue;
-						toUpdate[l++] = pieces[i][k];
-					}
-					break;
-				}
-				toUpdate[j] = pieces[i][j];
+		// plays a move on the view, counting it so it can be unmade at the end of the iteration
+		private void makeMove(Position start, Position end) {
+			try {
+				view.makeMove(start, end);
+				plies++;
+			} catch (ImpossiblePositionException e) {
 			}
-			updated[i] = toUpdate;
 		}
 
-		return updated;
-	}
+		// Selects a random move for simulation, or -1 if there are no legal moves
+		private int randomMove() {
+			int count = view.generateMoves(moves);
+			return count == 0 ? -1 : moves[random.nextInt(count)];
+		}
 
-	// updates the parent state to the root state.
-	private void backPropagate(Node node) {
-		Node current = node;
-		double result = node.score;
-		while (!current.equals(root)) {
-			Node parent = current.parent;
-			parent.score += result;
-			parent.numVisit++;
-			current = parent;
+		// adds the result to each node from the leaf up to the root, removing the virtual losses
+		private void backPropagate(Node node, int result) {
+			for (Node current = node; ; current = current.parent) {
+				SCORE.addAndGet(current, result + virtualLoss);
+				if (current == root)
+					break;
+			}
 		}
 	}
 
-	// Data structure of a node in the Tree holding the board at that state, number
-	// of times visited and score
-	private class Node {
+	// Data structure of a node in the Tree holding the number of times visited and
+	// the total score, which are updated atomically by the workers
+	private static class Node {
 		Node parent;
-		Colour playerId;
-		int numVisit;
-		double score;
-		Position[] move;// saves the move that changes parent state to current state
-		List<Node> children;
+		final Colour playerId;
+		volatile int numVisit;
+		volatile int score;
+		final Position[] move;// saves the move that changes parent state to current state
+		volatile List<Node> children = Collections.emptyList();
 
 		private Node(Node parent, Colour player, Position[] move) {
 			this.parent = parent;
 			playerId = player;
-			numVisit = 0;
-			score = 0;
 			this.move = move;
-			children = new ArrayList<Node>();
 		}
-
-		// adds child to child list
-		private void add(Node child) {
-			children.add(child);
-		}
-
 	}
 
-}
\ No newline at end of file
+}
@@ -13,8 +13,9 @@ import java.util.Random;
 public class RandomAgent extends Agent{
   
   private static final String name = "Random";
-  private static final Random random = new Random();
+  private final Random random;
   private int count = 0;
+  private final int[] moves = new int[Board.MAX_MOVES];
 
 
   /**
@@ -22,6 +23,16 @@ public class RandomAgent extends Agent{
    * required for tournament management.
    * **/
   public RandomAgent(){
+    random = new Random();
+  }
+
+  /**
+   * Creates an agent whose moves are chosen by a seeded random number generator,
+   * so that it plays the same moves in the same positions.
+   * @param seed the seed for the choice of moves.
+   * **/
+  public RandomAgent(long seed){
+    random = new Random(seed);
   }
 
   /**
@@ -36,23 +47,9 @@ public class RandomAgent extends Agent{
    * position to move that piece to.
    * **/
   public Position[] playMove(Board board){
-    Position[] pieces = board.getPositions(board.getTurn()).toArray(new Position[0]);
-    Position start = pieces[0];
-    Position end = pieces[0]; //dummy illegal move
-    
-    while (!board.isLegalMove(start, end)){
-      start = pieces[random.nextInt(pieces.length)];
-      Piece mover = board.getPiece(start);
-      Direction[][] steps = mover.getType().getSteps();
-      Direction[] step = steps[random.nextInt(steps.length)];
-      int reps = 1 + random.nextInt(mover.getType().getStepReps());
-      end = start;
-      try{
-        for(int i = 0; i<reps; i++)
-          end = board.step(mover, step, end, start.getColour()!=end.getColour());
-      }catch(ImpossiblePositionException e){}
-    }
-    return new Position[] {start,end};
+    int count = board.generateMoves(moves);
+    if(count==0) return null;//no legal moves, which the referee treats as an illegal move
+    return Move.toArray(moves[random.nextInt(count)]);
   }
 
   /**